@@ -0,0 +1,47 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernel} using SIMD instructions through the incubating Vector API, for the rows of
+ * double precision weights. The rows of single precision weights use the scalar loops.
+ * <p>
+ * {@link #axpy} multiplies and adds separately rather than with a fused multiply-add, so it rounds
+ * exactly like the scalar loop.
+ */
+class VectorApiKernel extends Kernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override double dot(double[] x, double[] y, int yOffset, int n) {
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int c = 0;
+		for (int bound = SPECIES.loopBound(n); c < bound; c += SPECIES.length())
+			sum = DoubleVector.fromArray(SPECIES, x, c).fma(DoubleVector.fromArray(SPECIES, y, yOffset + c), sum);
+		double f = sum.reduceLanes(VectorOperators.ADD);
+		for (; c < n; c++)
+			f += x[c] * y[yOffset + c];
+		return f;
+	}
+
+	@Override void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int n) {
+		int c = 0;
+		for (int bound = SPECIES.loopBound(n); c < bound; c += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, x, xOffset + c)
+					.mul(a)
+					.add(DoubleVector.fromArray(SPECIES, y, yOffset + c))
+					.intoArray(y, yOffset + c);
+		}
+		for (; c < n; c++)
+			y[yOffset + c] += a * x[xOffset + c];
+	}
+
+	@Override void divide(double[] x, double d, int n) {
+		int c = 0;
+		for (int bound = SPECIES.loopBound(n); c < bound; c += SPECIES.length())
+			DoubleVector.fromArray(SPECIES, x, c).div(d).intoArray(x, c);
+		for (; c < n; c++)
+			x[c] /= d;
+	}
+}
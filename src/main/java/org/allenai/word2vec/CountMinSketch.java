@@ -0,0 +1,86 @@
+package org.allenai.word2vec;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of the counts of tokens, in a fixed amount of memory however many distinct
+ * tokens there are
+ * <p>
+ * Each token is counted in one cell of each of {@link #DEPTH} rows, and its estimate is the
+ * smallest of those cells. Collisions only add to a cell, so the estimate is never below the true
+ * count, and exceeds it by at most a small share of the total number of tokens counted. The cells
+ * are updated atomically, so all threads can count into the same sketch, which is best done with
+ * counts aggregated over many tokens, as every update of a cell takes its cache line from the other
+ * threads.
+ */
+final class CountMinSketch {
+	/** Number of rows, i.e. of cells each token is counted in */
+	static final int DEPTH = 4;
+	/** Largest width whose cells still fit in one array */
+	private static final int MAX_WIDTH = 1 << 28;
+	/** Memory taken by a sketch one cell wide */
+	static final long MIN_BYTES = DEPTH * 8;
+	/** Memory taken by a sketch of the largest width */
+	static final long MAX_BYTES = MIN_BYTES * MAX_WIDTH;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final AtomicLongArray cells;
+	/** Width of each row minus one, the width being a power of 2 */
+	private final int mask;
+
+	/** @param bytes Memory to take, rounded down to a power of 2 cells per row */
+	CountMinSketch(long bytes) {
+		Preconditions.checkArgument(bytes >= MIN_BYTES && bytes <= MAX_BYTES, "Size %s is not between %s and %s bytes",
+				bytes, MIN_BYTES, MAX_BYTES);
+		long width = Long.highestOneBit(bytes / MIN_BYTES);
+		this.cells = new AtomicLongArray(DEPTH * (int)width);
+		this.mask = (int)width - 1;
+	}
+
+	/**
+	 * Count more occurrences of the token
+	 * @return Estimated count of the token, including these occurrences
+	 */
+	long add(String token, long count) {
+		long hash = hash(token);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++)
+			estimate = Math.min(estimate, cells.addAndGet(cell(hash, row), count));
+		return estimate;
+	}
+
+	/** @return Estimated count of the token, never below its true count */
+	long estimate(String token) {
+		long hash = hash(token);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++)
+			estimate = Math.min(estimate, cells.get(cell(hash, row)));
+		return estimate;
+	}
+
+	/** @return Index of the cell of the token in the given row, combining the two halves of its hash */
+	private int cell(long hash, int row) {
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32) | 1;
+		return row * (mask + 1) + ((h1 + row * h2) & mask);
+	}
+
+	/** @return 64-bit FNV-1a hash of the UTF-16 chars of the token, with its bits mixed */
+	private static long hash(String token) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < token.length(); i++)
+			hash = (hash ^ token.charAt(i)) * FNV_PRIME;
+		// The finalizer of SplitMix64, since the low bits of FNV-1a mix poorly
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+
+	/** @return Memory taken by the cells, in bytes */
+	long bytes() {
+		return cells.length() * 8L;
+	}
+}
@@ -0,0 +1,108 @@
+package org.allenai.word2vec;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Doubles;
+import org.allenai.word2vec.neuralnetwork.NeuralNetworkTrainer;
+
+import java.util.List;
+
+/**
+ * {@link Searcher} over the weights of a model while it is being trained
+ * <p>
+ * Unlike {@link SearcherImpl}, this keeps no copy of the vectors. Every query reads the rows it
+ * needs from the trainer as they are at that moment and normalizes them on the fly, so queries
+ * never stall the workers, at the cost of a query seeing some vectors midway through an update.
+ */
+class LiveSearcher implements Searcher {
+	private final NeuralNetworkTrainer trainer;
+	private final ImmutableList<String> vocab;
+	private final ImmutableMap<String, Integer> indices;
+	private final int layerSize;
+
+	LiveSearcher(Iterable<String> vocab, NeuralNetworkTrainer trainer) {
+		this.trainer = trainer;
+		this.vocab = ImmutableList.copyOf(vocab);
+		this.layerSize = trainer.layerSize();
+		ImmutableMap.Builder<String, Integer> indices = ImmutableMap.builder();
+		for (int i = 0; i < this.vocab.size(); i++)
+			indices.put(this.vocab.get(i), i);
+		this.indices = indices.build();
+	}
+
+	@Override public boolean contains(String word) {
+		return indices.containsKey(word);
+	}
+
+	@Override public ImmutableList<Double> getRawVector(String word) throws UnknownWordException {
+		return ImmutableList.copyOf(Doubles.asList(getVector(word)));
+	}
+
+	@Override public List<Match> getMatches(String word, int maxMatches) throws UnknownWordException {
+		return getMatches(getVector(word), maxMatches);
+	}
+
+	@Override public List<Match> getMatches(final double[] vec, int maxNumMatches) {
+		return Match.ORDERING.greatestOf(new AbstractIterator<Match>() {
+			private final double[] row = new double[layerSize];
+			private int idx;
+
+			@Override protected Match computeNext() {
+				if (idx == vocab.size())
+					return endOfData();
+				copyNormalized(idx, row);
+				return new SearcherImpl.MatchImpl(vocab.get(idx++), dot(row, vec));
+			}
+		}, maxNumMatches);
+	}
+
+	@Override public SemanticDifference similarity(String s1, String s2) throws UnknownWordException {
+		final double[] diff = getDifference(getVector(s1), getVector(s2));
+		return new SemanticDifference() {
+			@Override public List<Match> getMatches(String word, int maxMatches) throws UnknownWordException {
+				return LiveSearcher.this.getMatches(getDifference(getVector(word), diff), maxMatches);
+			}
+		};
+	}
+
+	@Override public double cosineDistance(String s1, String s2) throws UnknownWordException {
+		return dot(getVector(s1), getVector(s2));
+	}
+
+	/**
+	 * @return Current normalized vector for the given word
+	 * @throws UnknownWordException If word is not in the model's vocabulary
+	 */
+	private double[] getVector(String word) throws UnknownWordException {
+		Integer idx = indices.get(word);
+		if (idx == null)
+			throw new UnknownWordException(word);
+		double[] result = new double[layerSize];
+		copyNormalized(idx, result);
+		return result;
+	}
+
+	/** Copy the current vector of the word with the given vocab index, normalized to unit length */
+	private void copyNormalized(int idx, double[] vec) {
+		trainer.copyVector(idx, vec);
+		double len = Math.sqrt(dot(vec, vec));
+		for (int i = 0; i < layerSize; i++)
+			vec[i] /= len;
+	}
+
+	private double dot(double[] v1, double[] v2) {
+		double d = 0;
+		for (int i = 0; i < layerSize; i++)
+			d += v1[i] * v2[i];
+		return d;
+	}
+
+	/** @return Vector difference from v1 to v2 */
+	private double[] getDifference(double[] v1, double[] v2) {
+		double[] diff = new double[layerSize];
+		for (int i = 0; i < layerSize; i++)
+			diff[i] = v1[i] - v2[i];
+		return diff;
+	}
+}
@@ -0,0 +1,109 @@
+package org.allenai.word2vec;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One pass over the sentences on a number of threads, each adding the sentences it is handed to a
+ * partial result of its own, for the caller to merge
+ * <p>
+ * The sentences are read on the calling thread and handed out in batches through a bounded queue,
+ * so memory use does not grow with the size of the corpus.
+ */
+final class ParallelPass {
+	/** Sentences handed to a thread at once */
+	private static final int BATCH_SIZE = 1_000;
+	/** Number of batches that may be waiting in the queue per thread */
+	private static final int QUEUED_BATCHES_PER_THREAD = 4;
+	/** Marks the end of the batches, compared by identity */
+	private static final List<List<String>> END_OF_INPUT = new ArrayList<>();
+
+	private ParallelPass() {
+	}
+
+	/** Partial result of one thread */
+	interface Partial {
+		void add(List<String> sentence);
+	}
+
+	/** Creates the partial result of each thread, on that thread */
+	interface PartialFactory<T extends Partial> {
+		T create();
+	}
+
+	/**
+	 * @param threadName Name format of the threads, e.g. "word2vec-vocab-%d"
+	 * @return Partial results of the threads
+	 */
+	static <T extends Partial> List<T> run(Iterable<List<String>> sentences, int numThreads, String threadName, final PartialFactory<T> factory) throws InterruptedException {
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat(threadName).build()));
+		try {
+			final BlockingQueue<List<List<String>>> batches = new ArrayBlockingQueue<>(numThreads * QUEUED_BATCHES_PER_THREAD);
+			List<ListenableFuture<T>> futures = new ArrayList<>(numThreads);
+			for (int i = 0; i < numThreads; i++) {
+				futures.add(ex.submit(new Callable<T>() {
+					@Override public T call() throws InterruptedException {
+						T partial = factory.create();
+						for (List<List<String>> batch = batches.take(); batch != END_OF_INPUT; batch = batches.take()) {
+							for (List<String> sentence : batch)
+								partial.add(sentence);
+						}
+						return partial;
+					}
+				}));
+			}
+			ListenableFuture<List<T>> partials = Futures.allAsList(futures);
+
+			List<List<String>> batch = new ArrayList<>(BATCH_SIZE);
+			for (List<String> sentence : sentences) {
+				batch.add(sentence);
+				if (batch.size() == BATCH_SIZE) {
+					enqueue(batches, batch, partials);
+					batch = new ArrayList<>(BATCH_SIZE);
+				}
+			}
+			if (!batch.isEmpty())
+				enqueue(batches, batch, partials);
+			for (int i = 0; i < numThreads; i++)
+				enqueue(batches, END_OF_INPUT, partials);
+
+			return get(partials);
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+
+	/**
+	 * Blocks until there is room in the queue for the batch
+	 * @throws IllegalStateException If a thread failed, since the queue may then never drain
+	 */
+	private static void enqueue(BlockingQueue<List<List<String>>> batches, List<List<String>> batch, ListenableFuture<?> partials) throws InterruptedException {
+		while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			if (partials.isDone()) {
+				get(partials);
+				throw new IllegalStateException("Threads stopped before consuming all sentences");
+			}
+		}
+	}
+
+	private static <T> T get(ListenableFuture<T> partials) throws InterruptedException {
+		try {
+			return partials.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error processing sentences", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package org.allenai.word2vec;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Pairs of words that occur together often enough to be trained as a single token, e.g. "new_york",
+ * as found by word2phrase of the C version
+ * <p>
+ * A pair a b is a phrase if (count(a b) - minCount) / (count(a) * count(b)) * total words exceeds the
+ * threshold, where neither a nor b is rarer than minCount. Sentences are rewritten left to right,
+ * joining each phrase with an underscore, and a word joined with its predecessor is not joined with
+ * its successor as well.
+ */
+class Phrases {
+	/** Joins the words of a phrase into one token */
+	static final String DELIMITER = "_";
+	/** Separates the words of a pair in the counts, which tokens are not expected to contain */
+	private static final char PAIR_SEPARATOR = '\u0000';
+
+	/** Second words of the phrases by their first word, so looking up a pair builds no string */
+	private final ImmutableSetMultimap<String, String> pairs;
+
+	private Phrases(ImmutableSetMultimap<String, String> pairs) {
+		this.pairs = pairs;
+	}
+
+	/**
+	 * Count the words and pairs of words of the sentences on the given number of threads and keep the
+	 * pairs that score above the threshold
+	 * <p>
+	 * The counts hold at most maxCounts distinct words and pairs, reduced like the vocab, see
+	 * {@link TokenCounts}, so the counts of rare words and pairs are approximate on a large corpus
+	 * while those of phrases that matter are not.
+	 */
+	static Phrases learn(Iterable<List<String>> sentences, final int minCount, final double threshold, int maxCounts, int numThreads) throws InterruptedException {
+		final int maxThreadCounts = Math.max(1, maxCounts / numThreads);
+		List<PairCounts> partials = ParallelPass.run(sentences, numThreads, "word2vec-phrases-%d", new ParallelPass.PartialFactory<PairCounts>() {
+			@Override public PairCounts create() {
+				return new PairCounts(maxThreadCounts);
+			}
+		});
+		final TokenCounts counts = new TokenCounts(maxCounts);
+		for (PairCounts partial : partials)
+			counts.addAll(partial.counts);
+
+		final ImmutableSetMultimap.Builder<String, String> pairs = ImmutableSetMultimap.builder();
+		counts.forEach(new ObjLongConsumer<String>() {
+			@Override public void accept(String pair, long count) {
+				int separator = pair.indexOf(PAIR_SEPARATOR);
+				if (separator == -1)
+					return;
+				String a = pair.substring(0, separator);
+				String b = pair.substring(separator + 1);
+				long countA = counts.count(a);
+				long countB = counts.count(b);
+				if (countA < minCount || countB < minCount)
+					return;
+				double score = (count - minCount) / (double)countA / countB * counts.numTokens();
+				if (score > threshold)
+					pairs.put(a, b);
+			}
+		});
+		return new Phrases(pairs.build());
+	}
+
+	/** @return Number of phrases */
+	int size() {
+		return pairs.size();
+	}
+
+	/** @return Whether the given words form a phrase */
+	boolean isPhrase(String a, String b) {
+		return pairs.containsEntry(a, b);
+	}
+
+	/** @return The sentences with their phrases joined, rewritten lazily on each iteration */
+	Iterable<List<String>> join(Iterable<List<String>> sentences) {
+		return Iterables.transform(sentences, new Function<List<String>, List<String>>() {
+			@Override public List<String> apply(List<String> sentence) {
+				return join(sentence);
+			}
+		});
+	}
+
+	/** @return The sentence with its phrases joined */
+	List<String> join(List<String> sentence) {
+		List<String> result = null;
+		for (int i = 0; i < sentence.size(); i++) {
+			if (i + 1 < sentence.size() && isPhrase(sentence.get(i), sentence.get(i + 1))) {
+				// Most sentences have no phrases, so only copy the ones that do
+				if (result == null)
+					result = new ArrayList<>(sentence.subList(0, i));
+				result.add(sentence.get(i) + DELIMITER + sentence.get(i + 1));
+				i++;
+			} else if (result != null) {
+				result.add(sentence.get(i));
+			}
+		}
+		return result == null ? sentence : result;
+	}
+
+	@Override public String toString() {
+		return String.format("%s phrases", pairs.size());
+	}
+
+	/** Settings for learning phrases, see {@link Word2VecTrainerBuilder#detectPhrases} */
+	static final class Detector {
+		private final int minCount;
+		private final double threshold;
+		private final int maxCounts;
+		private final int numThreads;
+
+		Detector(int minCount, double threshold, int maxCounts, int numThreads) {
+			this.minCount = minCount;
+			this.threshold = threshold;
+			this.maxCounts = maxCounts;
+			this.numThreads = numThreads;
+		}
+
+		/** @see Phrases#learn */
+		Phrases learn(Iterable<List<String>> sentences) throws InterruptedException {
+			return Phrases.learn(sentences, minCount, threshold, maxCounts, numThreads);
+		}
+
+		@Override public String toString() {
+			return String.format("Phrases with min count %s and threshold %s", minCount, threshold);
+		}
+	}
+
+	/** Counts of the words and pairs of words of the sentences of one thread */
+	private static final class PairCounts implements ParallelPass.Partial {
+		final TokenCounts counts;
+
+		PairCounts(int maxCounts) {
+			this.counts = new TokenCounts(maxCounts);
+		}
+
+		@Override public void add(List<String> sentence) {
+			counts.add(sentence);
+			for (int i = 1; i < sentence.size(); i++)
+				counts.add(sentence.get(i - 1) + PAIR_SEPARATOR + sentence.get(i), 1);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.allenai.word2vec;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.allenai.word2vec.util.AutoLog;
+import org.apache.commons.logging.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link TrainingProgressListener} which records the latest progress of each stage and passes it on
+ * to another listener from a reporter thread at a fixed rate, so that a slow listener never holds
+ * up the threads doing the work
+ * <p>
+ * Recording progress is a single write to a lock-free cell per stage. Each report passes on every
+ * stage that progressed since the previous report, in order, with its latest progress, so the
+ * listener hears of every stage that was reached, though not of every update.
+ */
+class ProgressReporter implements TrainingProgressListener, AutoCloseable {
+	private static final Log LOG = AutoLog.getLog();
+	/** Marks a stage without any progress */
+	private static final long NONE = Double.doubleToRawLongBits(Double.NaN);
+
+	private final TrainingProgressListener listener;
+	/** Latest progress of each stage by ordinal, as the bits of the double */
+	private final AtomicLongArray latest;
+	/** Progress of each stage as last passed on, only accessed by the reporter thread */
+	private final long[] reported;
+	private final ScheduledExecutorService reporter;
+
+	ProgressReporter(TrainingProgressListener listener, long interval, TimeUnit unit) {
+		this.listener = listener;
+		this.reported = new long[Stage.values().length];
+		Arrays.fill(reported, NONE);
+		this.latest = new AtomicLongArray(reported);
+		this.reporter = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-progress-%d").build());
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override public void run() {
+				report();
+			}
+		}, interval, interval, unit);
+	}
+
+	@Override public void update(Stage stage, double progress) {
+		latest.lazySet(stage.ordinal(), Double.doubleToRawLongBits(progress));
+	}
+
+	/** Pass on the stages that progressed since the previous report */
+	private void report() {
+		for (Stage stage : Stage.values()) {
+			long progress = latest.get(stage.ordinal());
+			if (progress == reported[stage.ordinal()])
+				continue;
+			reported[stage.ordinal()] = progress;
+			try {
+				listener.update(stage, Double.longBitsToDouble(progress));
+			} catch (RuntimeException e) {
+				// Thrown out of a scheduled task, this would cancel all further reports
+				LOG.warn(String.format("Progress listener failed: %s", e), e);
+			}
+		}
+	}
+
+	/** Pass on any progress that was not reported yet, then stop the reporter thread */
+	@Override public void close() {
+		reporter.execute(new Runnable() {
+			@Override public void run() {
+				report();
+			}
+		});
+		reporter.shutdown();
+		// Wait for the last report even if interrupted, so the listener is not called once training has returned
+		boolean interrupted = false;
+		while (true) {
+			try {
+				reporter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
@@ -89,7 +89,8 @@ class SearcherImpl implements Searcher {
 	return result;
   }
 
-	private double[] getVectorOrNull(final String word) {
+	/** @return Normalized vector for the given word, or null if the model has none */
+	double[] getVectorOrNull(final String word) {
 		final Long index = word2vectorOffset.get(word);
 		if(index == null)
 			return null;
@@ -123,8 +124,8 @@ class SearcherImpl implements Searcher {
   }
 
   /** Implementation of {@link Match} */
-  private static class MatchImpl extends Pair<String, Double> implements Match {
-	private MatchImpl(String first, Double second) {
+  static class MatchImpl extends Pair<String, Double> implements Match {
+	MatchImpl(String first, Double second) {
 	  super(first, second);
 	}
 
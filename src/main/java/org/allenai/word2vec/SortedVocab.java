@@ -0,0 +1,137 @@
+package org.allenai.word2vec;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Tokens of the vocab with their counts, sorted by count descending, then lexicographically
+ * ascending, which is the order the Huffman coding and the model expect
+ * <p>
+ * The tokens are filtered into parallel arrays of tokens and counts in one pass over the
+ * {@link TokenCounts}, then sorted as ids into those arrays with a parallel merge sort. Ties are
+ * broken by the token, so the order is the same however the work is split.
+ */
+final class SortedVocab {
+	/** Below this many ids, a sort is not split between threads */
+	private static final int PARALLEL_THRESHOLD = 1 << 13;
+	/** Below this many ids, a sort uses insertion sort */
+	private static final int INSERTION_THRESHOLD = 16;
+
+	final ImmutableList<String> tokens;
+	/** Count of each token, in the same order */
+	final long[] counts;
+
+	private SortedVocab(ImmutableList<String> tokens, long[] counts) {
+		this.tokens = tokens;
+		this.counts = counts;
+	}
+
+	/** @return The tokens with at least the given count, sorted */
+	static SortedVocab of(TokenCounts tokenCounts, final long minCount) {
+		final String[] tokens = new String[tokenCounts.size()];
+		final long[] counts = new long[tokenCounts.size()];
+		final int[] size = new int[1];
+		tokenCounts.forEach(new ObjLongConsumer<String>() {
+			@Override public void accept(String token, long count) {
+				if (count < minCount)
+					return;
+				tokens[size[0]] = token;
+				counts[size[0]] = count;
+				size[0]++;
+			}
+		});
+
+		int[] ids = new int[size[0]];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = i;
+		ForkJoinPool.commonPool().invoke(new Sort(tokens, counts, ids, new int[ids.length], 0, ids.length));
+
+		String[] sortedTokens = new String[ids.length];
+		long[] sortedCounts = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			sortedTokens[i] = tokens[ids[i]];
+			sortedCounts[i] = counts[ids[i]];
+		}
+		return new SortedVocab(ImmutableList.copyOf(sortedTokens), sortedCounts);
+	}
+
+	/** @return Number of tokens */
+	int size() {
+		return counts.length;
+	}
+
+	/** Merge sort of a range of ids into the tokens and counts, forking the halves of large ranges */
+	private static final class Sort extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String[] tokens;
+		private final long[] counts;
+		private final int[] ids;
+		/** Scratch space for merging, the same size as {@link #ids} */
+		private final int[] buffer;
+		private final int from;
+		private final int to;
+
+		Sort(String[] tokens, long[] counts, int[] ids, int[] buffer, int from, int to) {
+			this.tokens = tokens;
+			this.counts = counts;
+			this.ids = ids;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override protected void compute() {
+			if (to - from < PARALLEL_THRESHOLD) {
+				sort(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(
+					new Sort(tokens, counts, ids, buffer, from, mid),
+					new Sort(tokens, counts, ids, buffer, mid, to));
+			merge(from, mid, to);
+		}
+
+		private void sort(int from, int to) {
+			if (to - from < INSERTION_THRESHOLD) {
+				for (int i = from + 1; i < to; i++) {
+					int id = ids[i];
+					int j = i;
+					for (; j > from && compare(id, ids[j - 1]) < 0; j--)
+						ids[j] = ids[j - 1];
+					ids[j] = id;
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			sort(from, mid);
+			sort(mid, to);
+			merge(from, mid, to);
+		}
+
+		/** Merge the sorted ranges [from, mid) and [mid, to) */
+		private void merge(int from, int mid, int to) {
+			if (compare(ids[mid - 1], ids[mid]) <= 0)
+				return;
+			System.arraycopy(ids, from, buffer, from, to - from);
+			int left = from;
+			int right = mid;
+			for (int i = from; i < to; i++) {
+				if (right == to || (left < mid && compare(buffer[left], buffer[right]) <= 0))
+					ids[i] = buffer[left++];
+				else
+					ids[i] = buffer[right++];
+			}
+		}
+
+		/** Count descending, then token ascending */
+		private int compare(int a, int b) {
+			int c = Long.compare(counts[b], counts[a]);
+			return c != 0 ? c : tokens[a].compareTo(tokens[b]);
+		}
+	}
+}
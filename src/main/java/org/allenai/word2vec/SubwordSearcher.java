@@ -0,0 +1,44 @@
+package org.allenai.word2vec;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * {@link SearcherImpl} which composes the vector of a word outside the vocab from the buckets of
+ * its character n-grams, as the mean of their vectors. Words in the vocab are looked up as usual.
+ * <p>
+ * {@link #contains(String)} still only reports words of the vocab. A word without any n-grams of
+ * the trained lengths has no vector.
+ */
+class SubwordSearcher extends SearcherImpl {
+	private final SubwordWord2VecModel model;
+
+	SubwordSearcher(SubwordWord2VecModel model) {
+		super(model);
+		this.model = model;
+	}
+
+	@Override double[] getVectorOrNull(String word) {
+		double[] result = super.getVectorOrNull(word);
+		if (result != null)
+			return result;
+		int[] buckets = model.subwords.buckets(word);
+		if (buckets.length == 0)
+			return null;
+
+		result = new double[model.layerSize];
+		for (int bucket : buckets) {
+			DoubleBuffer vectors = model.subwordVectors[bucket / model.subwordVectorsPerBuffer];
+			int offset = (bucket % model.subwordVectorsPerBuffer) * model.layerSize;
+			for (int i = 0; i < model.layerSize; i++)
+				result[i] += vectors.get(offset + i);
+		}
+		// Scaling by the number of buckets would be undone here anyway
+		double len = 0;
+		for (double v : result)
+			len += v * v;
+		len = Math.sqrt(len);
+		for (int i = 0; i < result.length; i++)
+			result[i] /= len;
+		return result;
+	}
+}
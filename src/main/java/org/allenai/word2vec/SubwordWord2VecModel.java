@@ -0,0 +1,37 @@
+package org.allenai.word2vec;
+
+import org.allenai.word2vec.neuralnetwork.Subwords;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * {@link Word2VecModel} trained with {@link Word2VecTrainerBuilder#useSubwords}, which also keeps the
+ * vectors of the buckets of character n-grams. Its {@link #forSearch()} composes a vector for a word
+ * outside the vocab from the buckets of its n-grams, e.g. for a misspelling or a rare inflection.
+ * <p>
+ * The vectors of the words in the vocab already include their n-grams, so every other use of the
+ * model, e.g. {@link #toBinFile} and {@link #toThrift()}, sees a plain model without the buckets.
+ */
+public class SubwordWord2VecModel extends Word2VecModel {
+	final Subwords subwords;
+	final DoubleBuffer[] subwordVectors;
+	/** The max number of bucket vectors stored in each DoubleBuffer */
+	final int subwordVectorsPerBuffer;
+
+	SubwordWord2VecModel(Iterable<String> vocab, int layerSize, DoubleBuffer[] vectors, Subwords subwords, DoubleBuffer[] subwordVectors) {
+		super(vocab, layerSize, vectors);
+		this.subwords = subwords;
+		this.subwordVectors = subwordVectors;
+		this.subwordVectorsPerBuffer = subwordVectors[0].limit() / layerSize;
+	}
+
+	/** @return The n-grams the model was trained with */
+	public Subwords getSubwords() {
+		return subwords;
+	}
+
+	/** @return {@link Searcher} for searching, which also answers for words outside the vocab */
+	@Override public Searcher forSearch() {
+		return new SubwordSearcher(this);
+	}
+}
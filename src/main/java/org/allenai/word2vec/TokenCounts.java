@@ -0,0 +1,205 @@
+package org.allenai.word2vec;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.primitives.Ints;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Counts of tokens in an open addressing hash table of tokens and primitive counts, which takes a
+ * fraction of the memory of a {@link Multiset} and allocates nothing per token
+ * <p>
+ * The table holds at most maxSize tokens. Like ReduceVocab of the C version, whenever it grows past
+ * that, the tokens up to a count that is raised on every reduction are dropped, so the counts of
+ * rare tokens are approximate on a large corpus while those of frequent ones are not.
+ */
+final class TokenCounts implements ParallelPass.Partial {
+	private static final int MIN_CAPACITY = 1 << 10;
+	/** Largest maxSize whose table, at most half full, still fits in an array */
+	static final int MAX_SIZE = 1 << 29;
+
+	private final int maxSize;
+	/** Tokens by slot, null for an empty slot */
+	private String[] tokens;
+	private long[] counts;
+	/** Number of bits of the hash that select the slot, i.e. log2 of the capacity */
+	private int bits;
+	private int size;
+	/** Tokens up to this count are dropped on the next reduction */
+	private long reduceCount = 1;
+	private long numSentences;
+	private long numTokens;
+
+	TokenCounts(int maxSize) {
+		Preconditions.checkArgument(maxSize > 0 && maxSize <= MAX_SIZE, "Size %s is not between 1 and %s", maxSize, MAX_SIZE);
+		this.maxSize = maxSize;
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		this.tokens = new String[capacity];
+		this.counts = new long[capacity];
+		this.bits = Integer.numberOfTrailingZeros(capacity);
+		this.size = 0;
+	}
+
+	/** @return Slot of the token, or the empty slot it would take */
+	private int slot(String token) {
+		// Fibonacci hashing spreads the bits of String.hashCode() over the top bits used for the slot
+		int mask = tokens.length - 1;
+		int slot = (token.hashCode() * 0x9E3779B9) >>> (32 - bits);
+		while (tokens[slot] != null && !tokens[slot].equals(token))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/** Count the tokens of the sentence */
+	@Override public void add(List<String> sentence) {
+		for (String token : sentence)
+			add(token, 1);
+		addSentences(1, sentence.size());
+	}
+
+	/** Count sentences with the given number of tokens in all, without counting the tokens themselves */
+	void addSentences(long numSentences, long numTokens) {
+		this.numSentences += numSentences;
+		this.numTokens += numTokens;
+	}
+
+	/** Add to the count of the token */
+	void add(String token, long count) {
+		int slot = slot(token);
+		if (tokens[slot] != null) {
+			counts[slot] += count;
+			return;
+		}
+		insert(slot, token, count);
+	}
+
+	/** Replace the count of the token */
+	void set(String token, long count) {
+		int slot = slot(token);
+		if (tokens[slot] != null) {
+			counts[slot] = count;
+			return;
+		}
+		insert(slot, token, count);
+	}
+
+	/** Put the token in the given empty slot */
+	private void insert(int slot, String token, long count) {
+		tokens[slot] = token;
+		counts[slot] = count;
+		size++;
+		if (size > maxSize)
+			reduce();
+		if (size > tokens.length / 2)
+			rehash(tokens.length * 2, 0);
+	}
+
+	/** @return Counts of the tokens of the {@link Multiset}, never reduced */
+	static TokenCounts of(Multiset<String> counts) {
+		TokenCounts result = new TokenCounts(MAX_SIZE);
+		result.addAll(counts);
+		return result;
+	}
+
+	/** Add all the counts of the {@link Multiset} to this table */
+	void addAll(Multiset<String> counts) {
+		for (Multiset.Entry<String> e : counts.entrySet())
+			add(e.getElement(), e.getCount());
+	}
+
+	/** Add all the counts of the other table to this one */
+	void addAll(TokenCounts other) {
+		other.forEach(new ObjLongConsumer<String>() {
+			@Override public void accept(String token, long count) {
+				add(token, count);
+			}
+		});
+		addSentences(other.numSentences, other.numTokens);
+	}
+
+	/** Drop the tokens up to {@link #reduceCount} and raise it for the next time */
+	private void reduce() {
+		rehash(tokens.length, reduceCount);
+		reduceCount++;
+	}
+
+	/** Drop all the tokens, keeping the capacity of the table and the counts of sentences and tokens */
+	void clear() {
+		Arrays.fill(tokens, null);
+		size = 0;
+	}
+
+	/** Move the tokens with a count above the given one into a table of the given capacity */
+	private void rehash(int capacity, long dropCount) {
+		String[] oldTokens = tokens;
+		long[] oldCounts = counts;
+		allocate(capacity);
+		for (int i = 0; i < oldTokens.length; i++) {
+			if (oldTokens[i] == null || oldCounts[i] <= dropCount)
+				continue;
+			int slot = slot(oldTokens[i]);
+			tokens[slot] = oldTokens[i];
+			counts[slot] = oldCounts[i];
+			size++;
+		}
+	}
+
+	/** @return Count of the token, 0 if it was not counted or dropped */
+	long count(String token) {
+		int slot = slot(token);
+		return tokens[slot] == null ? 0 : counts[slot];
+	}
+
+	/** @return Number of distinct tokens */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Hand each token with its count to the consumer, in no particular order
+	 * <p>
+	 * The slots are visited in a scrambled order, since in slot order the tokens come sorted by the
+	 * top bits of their hashes, and adding them in that order to a smaller table piles them all up
+	 * in one cluster, which makes each insert scan most of the table.
+	 */
+	void forEach(ObjLongConsumer<String> consumer) {
+		// Multiplying by an odd number permutes the slots of a power of 2 sized table
+		int mask = tokens.length - 1;
+		for (int i = 0; i < tokens.length; i++) {
+			int slot = (i * 0x9E3779B9) & mask;
+			if (tokens[slot] != null)
+				consumer.accept(tokens[slot], counts[slot]);
+		}
+	}
+
+	/** @return Number of tokens in the sentences counted, including those that were dropped */
+	long numTokens() {
+		return numTokens;
+	}
+
+	/** @return Number of sentences counted */
+	long numSentences() {
+		return numSentences;
+	}
+
+	/** @return The counts as a {@link Multiset}, with counts beyond the range of an int saturated */
+	Multiset<String> toMultiset() {
+		Multiset<String> result = HashMultiset.create(size);
+		for (int i = 0; i < tokens.length; i++) {
+			if (tokens[i] != null)
+				result.add(tokens[i], Ints.saturatedCast(counts[i]));
+		}
+		return result;
+	}
+
+	@Override public String toString() {
+		return String.format("%s distinct tokens in %s sentences", size, numSentences);
+	}
+}
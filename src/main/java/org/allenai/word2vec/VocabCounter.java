@@ -0,0 +1,233 @@
+package org.allenai.word2vec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Counts the tokens of the sentences on a number of threads, in memory bounded however many
+ * distinct tokens the corpus has
+ */
+abstract class VocabCounter {
+	final int numThreads;
+	/** Most distinct tokens of the merged counts, see the subclasses for how much each thread holds */
+	final int maxVocabSize;
+
+	VocabCounter(int numThreads, int maxVocabSize) {
+		this.numThreads = numThreads;
+		this.maxVocabSize = maxVocabSize;
+	}
+
+	/** @return Counts of the tokens of the sentences */
+	abstract TokenCounts count(Iterable<List<String>> sentences) throws InterruptedException;
+
+	/** @return The partial counts of the threads merged into one table of at most the maximum vocab size */
+	TokenCounts merge(List<TokenCounts> partials) {
+		TokenCounts total = new TokenCounts(maxVocabSize);
+		for (TokenCounts partial : partials)
+			total.addAll(partial);
+		return total;
+	}
+
+	/**
+	 * Counts the tokens into a {@link TokenCounts} per thread, which are merged at the end
+	 * <p>
+	 * Each thread holds at most its share of the maximum number of distinct tokens, and so does the
+	 * merged table, so memory stays bounded on a corpus with a long tail of junk tokens. Which of the
+	 * rare tokens survive a reduction depends on how the sentences were split between the threads.
+	 */
+	static class TableCounter extends VocabCounter {
+		TableCounter(int numThreads, int maxVocabSize) {
+			super(numThreads, maxVocabSize);
+		}
+
+		@Override TokenCounts count(Iterable<List<String>> sentences) throws InterruptedException {
+			final int maxThreadSize = Math.max(1, maxVocabSize / numThreads);
+			List<TokenCounts> partials = ParallelPass.run(sentences, numThreads, "word2vec-vocab-%d", new ParallelPass.PartialFactory<TokenCounts>() {
+				@Override public TokenCounts create() {
+					return new TokenCounts(maxThreadSize);
+				}
+			});
+			return merge(partials);
+		}
+
+		@Override public String toString() {
+			return String.format("Counting on %s threads, reducing past %s tokens", numThreads, maxVocabSize);
+		}
+	}
+
+	/**
+	 * Counts all the tokens into one {@link CountMinSketch} shared by the threads, and only keeps the
+	 * tokens whose estimated count reaches the minimum frequency of the vocab as candidates
+	 * <p>
+	 * The estimates are never below the true counts, so every token of the vocab becomes a candidate,
+	 * while the junk tokens that make up most of the distinct strings of a large corpus take no
+	 * memory beyond the fixed size of the sketch. The candidates are counted with their estimates,
+	 * which may let some rare tokens through with inflated counts. Optionally, a second pass counts
+	 * the candidates exactly, which costs another pass over the corpus.
+	 * <p>
+	 * Each thread holds up to the maximum vocab size of candidates, rather than a share of it, since
+	 * every thread sees much the same frequent tokens. Past that, it drops the half of them with the
+	 * lowest current estimates. This only happens once the sketch is too small for the corpus, or the
+	 * vocab too large for its maximum size, and then the tokens of the vocab that are dropped are the
+	 * rarest ones, as far as the sketch can tell them apart.
+	 * <p>
+	 * Each thread counts its tokens into a buffer of its own, which it adds to the sketch every
+	 * {@link Candidates#FLUSH_TOKENS} tokens, so that the threads update the shared cells of a
+	 * frequent token once per flush rather than once per occurrence.
+	 */
+	static class SketchCounter extends VocabCounter {
+		private final long minCount;
+		private final long sketchBytes;
+		private final boolean recount;
+
+		SketchCounter(int numThreads, int maxVocabSize, long minCount, long sketchBytes, boolean recount) {
+			super(numThreads, maxVocabSize);
+			this.minCount = minCount;
+			this.sketchBytes = sketchBytes;
+			this.recount = recount;
+		}
+
+		@Override TokenCounts count(Iterable<List<String>> sentences) throws InterruptedException {
+			final CountMinSketch sketch = new CountMinSketch(sketchBytes);
+			List<Candidates> partials = ParallelPass.run(sentences, numThreads, "word2vec-vocab-%d", new ParallelPass.PartialFactory<Candidates>() {
+				@Override public Candidates create() {
+					return new Candidates(sketch, minCount, maxVocabSize);
+				}
+			});
+			// One after the other, so that the last flush of each token sees all of its occurrences
+			List<TokenCounts> candidates = new ArrayList<>(partials.size());
+			long numSentences = 0;
+			long numTokens = 0;
+			for (Candidates partial : partials) {
+				partial.flush();
+				candidates.add(partial.candidates);
+				numSentences += partial.buffer.numSentences();
+				numTokens += partial.buffer.numTokens();
+			}
+			TokenCounts merged = merge(candidates);
+
+			final TokenCounts estimated = new TokenCounts(maxVocabSize);
+			merged.forEach(new ObjLongConsumer<String>() {
+				@Override public void accept(String token, long count) {
+					estimated.add(token, sketch.estimate(token));
+				}
+			});
+			estimated.addSentences(numSentences, numTokens);
+			if (!recount)
+				return estimated;
+
+			final int numCandidates = Math.max(1, estimated.size());
+			List<Recount> partialRecounts = ParallelPass.run(sentences, numThreads, "word2vec-recount-%d", new ParallelPass.PartialFactory<Recount>() {
+				@Override public Recount create() {
+					return new Recount(estimated, numCandidates);
+				}
+			});
+			List<TokenCounts> recounts = new ArrayList<>(partialRecounts.size());
+			for (Recount partial : partialRecounts)
+				recounts.add(partial.counts);
+			return merge(recounts);
+		}
+
+		@Override public String toString() {
+			return String.format("Counting on %s threads into a %s byte sketch, keeping tokens estimated at %s or more%s",
+					numThreads, sketchBytes, minCount, recount ? ", then counting them exactly" : "");
+		}
+	}
+
+	/** Tokens of the sentences of one thread whose estimate in the shared sketch reached the minimum count */
+	private static final class Candidates implements ParallelPass.Partial {
+		/** Tokens counted into {@link #buffer} before it is added to the sketch */
+		static final int FLUSH_TOKENS = 1 << 16;
+
+		private final CountMinSketch sketch;
+		private final long minCount;
+		/** Most candidates to hold */
+		private final int maxSize;
+		/** Counts of the tokens not yet added to the sketch, and of all the sentences of this thread */
+		final TokenCounts buffer = new TokenCounts(TokenCounts.MAX_SIZE);
+		private long bufferedTokens;
+		/** Candidates with their estimates as of when they were last flushed, or last ranked */
+		TokenCounts candidates = new TokenCounts(TokenCounts.MAX_SIZE);
+
+		Candidates(CountMinSketch sketch, long minCount, int maxSize) {
+			this.sketch = sketch;
+			this.minCount = minCount;
+			this.maxSize = maxSize;
+		}
+
+		@Override public void add(List<String> sentence) {
+			buffer.add(sentence);
+			bufferedTokens += sentence.size();
+			if (bufferedTokens >= FLUSH_TOKENS)
+				flush();
+		}
+
+		/** Add the buffered counts to the sketch, keeping the tokens whose estimates reach the minimum count */
+		void flush() {
+			buffer.forEach(new ObjLongConsumer<String>() {
+				@Override public void accept(String token, long count) {
+					long estimate = sketch.add(token, count);
+					if (estimate < minCount)
+						return;
+					candidates.set(token, estimate);
+					if (candidates.size() > maxSize)
+						dropLowest();
+				}
+			});
+			buffer.clear();
+			bufferedTokens = 0;
+		}
+
+		/** Keep the half of the candidates with the highest current estimates, breaking ties arbitrarily */
+		private void dropLowest() {
+			final String[] tokens = new String[candidates.size()];
+			final long[] estimates = new long[candidates.size()];
+			final int[] size = new int[1];
+			candidates.forEach(new ObjLongConsumer<String>() {
+				@Override public void accept(String token, long count) {
+					tokens[size[0]] = token;
+					estimates[size[0]++] = sketch.estimate(token);
+				}
+			});
+			int keep = tokens.length / 2;
+			long[] sorted = estimates.clone();
+			Arrays.sort(sorted);
+			long cutoff = sorted[sorted.length - keep];
+			// Everything above the cutoff, then as many of the tokens at the cutoff as there is room for,
+			// so that a vocab of tokens with the same estimate is not dropped all at once
+			TokenCounts ranked = new TokenCounts(TokenCounts.MAX_SIZE);
+			for (int i = 0; i < tokens.length; i++) {
+				if (estimates[i] > cutoff)
+					ranked.set(tokens[i], estimates[i]);
+			}
+			for (int i = 0; i < tokens.length && ranked.size() < keep; i++) {
+				if (estimates[i] == cutoff)
+					ranked.set(tokens[i], estimates[i]);
+			}
+			candidates = ranked;
+		}
+	}
+
+	/** Exact counts of the tokens of the sentences that are among the given candidates */
+	private static final class Recount implements ParallelPass.Partial {
+		/** Only read, so shared by all the threads */
+		private final TokenCounts candidates;
+		final TokenCounts counts;
+
+		/** @param maxSize At least the number of candidates, so that nothing is dropped */
+		Recount(TokenCounts candidates, int maxSize) {
+			this.candidates = candidates;
+			this.counts = new TokenCounts(maxSize);
+		}
+
+		@Override public void add(List<String> sentence) {
+			for (String token : sentence) {
+				if (candidates.count(token) > 0)
+					counts.add(token, 1);
+			}
+			counts.addSentences(1, sentence.size());
+		}
+	}
+}
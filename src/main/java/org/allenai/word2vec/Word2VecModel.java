@@ -271,13 +271,11 @@ public class Word2VecModel {
 		final ByteBuffer buffer = ByteBuffer.allocate(4 * layerSize);
 		buffer.order(ByteOrder.LITTLE_ENDIAN);	// The C version uses this byte order.
 
-		int vectorsPerBuffer = MAX_DOUBLE_BUFFER / layerSize;
-
 		for(int i = 0; i < vocab.size(); ++i) {
 			out.write(String.format("%s ", vocab.get(i)).getBytes(cs));
 
 			DoubleBuffer vectorBuffer = vectors[i / vectorsPerBuffer];
-			vectorBuffer.position(i * layerSize);
+			vectorBuffer.position((i % vectorsPerBuffer) * layerSize);
 			vectorBuffer.get(vector);
 			buffer.clear();
 			for(int j = 0; j < layerSize; ++j)
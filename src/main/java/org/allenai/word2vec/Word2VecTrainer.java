@@ -1,100 +1,208 @@
 package org.allenai.word2vec;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.ImmutableMultiset;
-import com.google.common.collect.ImmutableSortedMultiset;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Multiset;
-import com.google.common.collect.Multisets;
-import com.google.common.primitives.Doubles;
+import com.google.common.net.HostAndPort;
 import org.allenai.word2vec.util.AC;
 import org.allenai.word2vec.util.ProfilingTimer;
 import org.allenai.word2vec.huffman.HuffmanCoding;
 import org.apache.commons.logging.Log;
+import org.allenai.word2vec.Word2VecTrainerBuilder.LiveSearcherListener;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
-import org.allenai.word2vec.huffman.HuffmanCoding;
-import org.allenai.word2vec.huffman.HuffmanCoding.HuffmanNode;
+import org.allenai.word2vec.huffman.HuffmanCodes;
+import org.allenai.word2vec.neuralnetwork.Checkpoint;
+import org.allenai.word2vec.neuralnetwork.CoordinatorClient;
 import org.allenai.word2vec.neuralnetwork.NeuralNetworkConfig;
+import org.allenai.word2vec.neuralnetwork.NeuralNetworkTrainer;
 import org.allenai.word2vec.neuralnetwork.NeuralNetworkTrainer.NeuralNetworkModel;
+import org.allenai.word2vec.neuralnetwork.Subwords;
 
+import java.nio.DoubleBuffer;
 import java.util.List;
-import java.util.Map;
 
 /** Responsible for training a word2vec model */
 class Word2VecTrainer {
 	private final int minFrequency;
+	private final VocabCounter vocabCounter;
 	private final Optional<Multiset<String>> vocab;
+	private final Optional<Checkpoint> checkpoint;
+	private final Optional<Word2VecModel> warmStartModel;
+	private final Optional<Checkpoint> warmStartCheckpoint;
+	private final Optional<HostAndPort> coordinator;
+	private final Optional<LiveSearcherListener> searcherListener;
+	private final Optional<Subwords> subwords;
+	private final Optional<Phrases.Detector> phraseDetector;
 	private final NeuralNetworkConfig neuralNetworkConfig;
 	
 	Word2VecTrainer(
 			Integer minFrequency,
+			VocabCounter vocabCounter,
 			Optional<Multiset<String>> vocab,
+			Optional<Checkpoint> checkpoint,
+			Optional<Word2VecModel> warmStartModel,
+			Optional<Checkpoint> warmStartCheckpoint,
+			Optional<HostAndPort> coordinator,
+			Optional<LiveSearcherListener> searcherListener,
+			Optional<Subwords> subwords,
+			Optional<Phrases.Detector> phraseDetector,
 			NeuralNetworkConfig neuralNetworkConfig) {
 		this.vocab = vocab;
+		this.checkpoint = checkpoint;
+		this.warmStartModel = warmStartModel;
+		this.warmStartCheckpoint = warmStartCheckpoint;
+		this.coordinator = coordinator;
+		this.searcherListener = searcherListener;
+		this.subwords = subwords;
+		this.phraseDetector = phraseDetector;
 		this.minFrequency = minFrequency;
+		this.vocabCounter = vocabCounter;
 		this.neuralNetworkConfig = neuralNetworkConfig;
 	}
 
-	/** @return {@link Multiset} containing unique tokens and their counts */
-	private static Multiset<String> count(Iterable<String> tokens) {
-		Multiset<String> counts = HashMultiset.create();
-		for (String token : tokens)
-			counts.add(token);
-		return counts;
+	/** @return Number of sentences */
+	private static long count(Iterable<List<String>> sentences) {
+		long numSentences = 0;
+		for (@SuppressWarnings("unused") List<String> sentence : sentences)
+			numSentences++;
+		return numSentences;
 	}
 	
-	/** @return Tokens with their count, sorted by frequency decreasing, then lexicographically ascending */
-	private ImmutableMultiset<String> filterAndSort(final Multiset<String> counts) {
-		// This isn't terribly efficient, but it is deterministic
-		// Unfortunately, Guava's multiset doesn't give us a clean way to order both by count and element
-		return Multisets.copyHighestCountFirst(
-				ImmutableSortedMultiset.copyOf(
-						Multisets.filter(
-								counts,
-								new Predicate<String>() {
-									@Override
-									public boolean apply(String s) {
-										return counts.count(s) >= minFrequency;
-									}
-								}
-						)
-				)
-		);
-		
+	/** @return Number of words of the vocab in the given counts */
+	private static long countTokens(SortedVocab vocab, TokenCounts counts) {
+		long tokens = 0;
+		for (String word : vocab.tokens)
+			tokens += counts.count(word);
+		return tokens;
 	}
 	
 	/** Train a model using the given data */
 	Word2VecModel train(Log log, TrainingProgressListener listener, Iterable<List<String>> sentences) throws InterruptedException {
 		try (ProfilingTimer timer = ProfilingTimer.createLoggingSubtasks(log, "Training word2vec")) {
-			final Multiset<String> counts;
-			
-			try (AC ac = timer.start("Acquiring word frequencies")) {
+			if (checkpoint.isPresent())
+				return resume(timer, listener, sentences);
+			if (coordinator.isPresent()) {
+				try (CoordinatorClient client = CoordinatorClient.connect(coordinator.get().getHostText(), coordinator.get().getPort())) {
+					return train(timer, log, listener, sentences, Optional.of(client));
+				}
+			}
+			return train(timer, log, listener, sentences, Optional.<CoordinatorClient>absent());
+		}
+	}
+	
+	/** Train a model from scratch, on a shard of the corpus if there is a coordinator */
+	private Word2VecModel train(
+			ProfilingTimer timer,
+			Log log,
+			TrainingProgressListener listener,
+			Iterable<List<String>> sentences,
+			Optional<CoordinatorClient> client) throws InterruptedException {
+		TokenCounts counts;
+		final long numSentences;
+		
+		if (phraseDetector.isPresent()) {
+			final Phrases phrases;
+			try (AC ac = timer.start("Detecting phrases")) {
 				listener.update(Stage.ACQUIRE_VOCAB, 0.0);
-				counts = (vocab.isPresent())
-							? vocab.get()
-							: count(Iterables.concat(sentences));
+				phrases = phraseDetector.get().learn(sentences);
 			}
-			
-			final ImmutableMultiset<String> vocab;
-			try (AC ac = timer.start("Filtering and sorting vocabulary")) {
-				listener.update(Stage.FILTER_SORT_VOCAB, 0.0);
-				vocab = filterAndSort(counts);
+			log.info(String.format("Found %s", phrases));
+			sentences = phrases.join(sentences);
+		}
+		
+		try (AC ac = timer.start("Acquiring word frequencies")) {
+			listener.update(Stage.ACQUIRE_VOCAB, 0.0);
+			if (vocab.isPresent()) {
+				counts = TokenCounts.of(vocab.get());
+				numSentences = count(sentences);
+			} else {
+				counts = vocabCounter.count(sentences);
+				numSentences = counts.numSentences();
 			}
-			
-			final Map<String, HuffmanCoding.HuffmanNode> huffmanNodes;
-			try (AC task = timer.start("Create Huffman encoding")) {
-				huffmanNodes = new HuffmanCoding(vocab, listener).encode();
+		}
+		
+		final TokenCounts shardCounts = counts;
+		if (client.isPresent()) {
+			try (AC ac = timer.start("Exchanging word frequencies with the coordinator")) {
+				counts = TokenCounts.of(client.get().exchangeVocab(counts.toMultiset()));
 			}
-			
-			final NeuralNetworkModel model;
-			try (AC task = timer.start("Training model %s", neuralNetworkConfig)) {
-				model = neuralNetworkConfig.createTrainer(vocab, huffmanNodes, listener).train(sentences);
+		}
+		
+		if (warmStartCheckpoint.isPresent()) {
+			// Merge into a table with room for both vocabs, so that no word of either is reduced away
+			Multiset<String> previous = warmStartCheckpoint.get().vocab();
+			TokenCounts merged = new TokenCounts((int)Math.min(TokenCounts.MAX_SIZE, (long)counts.size() + previous.elementSet().size()));
+			merged.addAll(counts);
+			merged.addAll(previous);
+			counts = merged;
+		}
+		
+		final SortedVocab vocab;
+		try (AC ac = timer.start("Filtering and sorting vocabulary")) {
+			listener.update(Stage.FILTER_SORT_VOCAB, 0.0);
+			vocab = SortedVocab.of(counts, minFrequency);
+		}
+		
+		final HuffmanCodes huffmanCodes;
+		try (AC task = timer.start("Create Huffman encoding")) {
+			huffmanCodes = new HuffmanCoding(vocab.tokens, vocab.counts, listener).encode();
+		}
+		
+		final NeuralNetworkTrainer trainer = neuralNetworkConfig.createTrainer(huffmanCodes, listener);
+		if (warmStartModel.isPresent() || warmStartCheckpoint.isPresent()) {
+			try (AC task = timer.start("Initializing weights from a previous model")) {
+				int initialized = warmStartModel.isPresent()
+						? warmStart(trainer, warmStartModel.get())
+						: warmStartCheckpoint.get().warmStart(trainer);
+				log.info(String.format("Initialized %s of %s words from a previous model", initialized, vocab.size()));
 			}
-			
-			return new Word2VecModel(vocab.elementSet(), model.layerSize(), Doubles.concat(model.vectors()));
 		}
+		if (client.isPresent())
+			trainer.synchronizeWith(client.get(), countTokens(vocab, shardCounts));
+		if (searcherListener.isPresent())
+			searcherListener.get().trainingStarted(new LiveSearcher(vocab.tokens, trainer));
+		
+		final NeuralNetworkModel model;
+		try (AC task = timer.start("Training model %s", neuralNetworkConfig)) {
+			model = trainer.train(sentences, numSentences);
+		}
+		
+		if (subwords.isPresent())
+			return new SubwordWord2VecModel(vocab.tokens, model.layerSize(), model.vectors(), subwords.get(), model.subwordVectors());
+		return new Word2VecModel(vocab.tokens, model.layerSize(), model.vectors());
+	}
+	
+	/** 
+	 * Copy the vectors of the given model into the trainer for the words they have in common
+	 * @return Number of words that were initialized
+	 */
+	private static int warmStart(NeuralNetworkTrainer trainer, Word2VecModel model) {
+		double[] vector = new double[model.layerSize];
+		int initialized = 0;
+		for (int i = 0; i < model.vocab.size(); i++) {
+			DoubleBuffer buffer = model.vectors[i / model.vectorsPerBuffer].duplicate();
+			buffer.position((i % model.vectorsPerBuffer) * model.layerSize);
+			buffer.get(vector);
+			if (trainer.initializeVector(model.vocab.get(i), vector))
+				initialized++;
+		}
+		return initialized;
+	}
+	
+	/** Continue training from {@link #checkpoint}, whose vocab replaces the first stages */
+	private Word2VecModel resume(ProfilingTimer timer, TrainingProgressListener listener, Iterable<List<String>> sentences) throws InterruptedException {
+		final NeuralNetworkTrainer trainer;
+		try (AC task = timer.start("Restoring checkpoint")) {
+			trainer = checkpoint.get().createTrainer(neuralNetworkConfig, listener);
+		}
+		if (searcherListener.isPresent())
+			searcherListener.get().trainingStarted(new LiveSearcher(checkpoint.get().vocab().elementSet(), trainer));
+		
+		final NeuralNetworkModel model;
+		try (AC task = timer.start("Training model %s", neuralNetworkConfig)) {
+			model = trainer.train(sentences, checkpoint.get().numSentences());
+		}
+		
+		return new Word2VecModel(checkpoint.get().vocab().elementSet(), model.layerSize(), model.vectors());
 	}
 }
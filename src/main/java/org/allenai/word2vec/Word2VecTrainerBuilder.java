@@ -3,15 +3,29 @@ package org.allenai.word2vec;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Multiset;
+import com.google.common.net.HostAndPort;
 import org.allenai.word2vec.util.AutoLog;
+import org.allenai.word2vec.neuralnetwork.Checkpoint;
+import org.allenai.word2vec.neuralnetwork.KernelType;
+import org.allenai.word2vec.neuralnetwork.NegativeSamplerType;
 import org.allenai.word2vec.neuralnetwork.NeuralNetworkConfig;
 import org.apache.commons.logging.Log;
 import org.allenai.word2vec.neuralnetwork.NeuralNetworkConfig;
 import org.allenai.word2vec.neuralnetwork.NeuralNetworkType;
+import org.allenai.word2vec.neuralnetwork.Subwords;
+import org.allenai.word2vec.neuralnetwork.TrainingStats;
+import org.allenai.word2vec.neuralnetwork.WeightStorage;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * Builder pattern for training a new {@link Word2VecModel}
@@ -23,8 +37,10 @@ import java.util.Map;
  * <li> When building the vocabulary from the training file:
  * 		<ul>
  * 			<li> The original version does a reduction step when learning the vocabulary from the file
- * 				when the vocab size hits 21 million words, removing any words that do not meet the
- * 				minimum frequency threshold.  This Java port has no such reduction step.
+ * 				when the vocab size hits 21 million words, removing the rarest words with a cutoff that is
+ * 				raised on every reduction.  This Java port counts on all threads and reduces the table of
+ * 				each thread at its share of the limit set with {@link #setMaxVocabSize(int)}, so which rare
+ * 				words survive may differ from the original on very large vocabularies.
  * 			<li> The original version injects a &lt;/s&gt; token into the vocabulary (with a word count of 0)
  * 				as a substitute for newlines in the input file.  This Java port's vocabulary excludes the token.
  * 		</ul> 
@@ -73,10 +89,42 @@ public class Word2VecTrainerBuilder {
 	private boolean useHierarchicalSoftmax;
 	private Multiset<String> vocab;
 	private Integer minFrequency;
+	private Integer maxVocabSize;
+	private long vocabSketchBytes;
+	private boolean recountVocab;
 	private Double initialLearningRate;
 	private Double downSampleRate;
 	private Integer iterations;
 	private TrainingProgressListener listener;
+	private Long progressInterval;
+	private TimeUnit progressIntervalUnit;
+	private LiveSearcherListener searcherListener;
+	private TrainingStatsListener statsListener;
+	private long statsInterval;
+	private TimeUnit statsIntervalUnit;
+	private int lossSampleInterval;
+	private double minLossImprovement;
+	private Subwords subwords;
+	private Phrases.Detector phraseDetector;
+	private int phraseMinCount;
+	private double phraseThreshold;
+	private int maxPhraseCounts;
+	private WeightStorage weightStorage;
+	private File weightDirectory;
+	private boolean padRows;
+	private int sharedProcess;
+	private int numSharedProcesses;
+	private int hotRows;
+	private int hotRowSyncInterval;
+	private KernelType kernelType;
+	private NegativeSamplerType negativeSamplerType;
+	private File checkpointFile;
+	private long checkpointInterval;
+	private TimeUnit checkpointIntervalUnit;
+	private Checkpoint checkpoint;
+	private Word2VecModel warmStartModel;
+	private Checkpoint warmStartCheckpoint;
+	private HostAndPort coordinator;
 	
 	Word2VecTrainerBuilder() {
 	}
@@ -146,6 +194,16 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/** 
+	 * @see {@link NegativeSamplerType}
+	 * <p>
+	 * Defaults to {@link NegativeSamplerType#ALIAS}
+	 */
+	public Word2VecTrainerBuilder setNegativeSampler(NegativeSamplerType negativeSamplerType) {
+		this.negativeSamplerType = Preconditions.checkNotNull(negativeSamplerType);
+		return this;
+	}
+	
 	/** 
 	 * Use a pre-built vocabulary
 	 * <p>
@@ -169,6 +227,38 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/**
+	 * Reduce the counts of the tokens while learning the vocabulary whenever they hold more than this
+	 * many distinct tokens, dropping the rarest ones as the original version does, so that a long tail
+	 * of junk tokens does not run out of memory
+	 * <p>
+	 * Defaults to 21,000,000, as in the original version
+	 */
+	public Word2VecTrainerBuilder setMaxVocabSize(int maxVocabSize) {
+		Preconditions.checkArgument(maxVocabSize > 0 && maxVocabSize <= TokenCounts.MAX_SIZE,
+				"Value must be between 1 and %s", TokenCounts.MAX_SIZE);
+		this.maxVocabSize = maxVocabSize;
+		return this;
+	}
+	
+	/**
+	 * Learn the vocabulary with a count-min sketch of the given size, e.g. 1 &lt;&lt; 30 bytes, shared by
+	 * all threads, only keeping exact track of the tokens whose estimated count reaches the minimum
+	 * frequency. Memory then stays flat however many distinct junk tokens the corpus has. Estimates
+	 * are never too low, so no word of the vocab is missed as long as it fits in
+	 * {@link #setMaxVocabSize(int)}, but some rare words may make it in with inflated counts, unless
+	 * recount is set to count the surviving words exactly in a second pass over the corpus.
+	 * <p>
+	 * By default, all distinct tokens are counted, up to {@link #setMaxVocabSize(int)}
+	 */
+	public Word2VecTrainerBuilder useVocabSketch(long sketchBytes, boolean recount) {
+		Preconditions.checkArgument(sketchBytes >= CountMinSketch.MIN_BYTES && sketchBytes <= CountMinSketch.MAX_BYTES,
+				"Value must be between %s and %s", CountMinSketch.MIN_BYTES, CountMinSketch.MAX_BYTES);
+		this.vocabSketchBytes = sketchBytes;
+		this.recountVocab = recount;
+		return this;
+	}
+	
 	/**
 	 * Set the starting learning rate
 	 * <p>
@@ -199,12 +289,279 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/** 
+	 * @see {@link WeightStorage}
+	 * <p>
+	 * Defaults to {@link WeightStorage#DOUBLE_ARRAY}
+	 */
+	public Word2VecTrainerBuilder setWeightStorage(WeightStorage weightStorage) {
+		this.weightStorage = Preconditions.checkNotNull(weightStorage);
+		return this;
+	}
+	
+	/** 
+	 * Memory-map the weights of the neural network from files in the given directory,
+	 * i.e. {@link WeightStorage#MAPPED}. Any existing weight files in the directory are overwritten.
+	 * <p>
+	 * The vectors of the trained model remain backed by the syn0 file in this directory.
+	 */
+	public Word2VecTrainerBuilder useMappedWeights(File weightDirectory) {
+		Preconditions.checkArgument(weightDirectory.isDirectory(), "%s is not a directory", weightDirectory);
+		this.weightStorage = WeightStorage.MAPPED;
+		this.weightDirectory = weightDirectory;
+		return this;
+	}
+	
+	/** 
+	 * Like {@link #useMappedWeights(File)}, but shares the weights with other processes on the same
+	 * machine, each training on its own slice of the corpus with this same configuration. All the
+	 * processes update the mapped files without locks, like the threads of a single process do,
+	 * which gets past the heap and garbage collection limits of a single JVM.
+	 * <p>
+	 * Process 0 initializes the weights and the others wait for it. Each process returns once all of
+	 * them are done, with the same model. The vocab must be given with {@link #useVocab(Multiset)},
+	 * so that all processes agree on it. Files left by a previous run that did not finish must be
+	 * removed first.
+	 * @param process Index of this process, from 0 to numProcesses - 1
+	 */
+	public Word2VecTrainerBuilder shareMappedWeights(File weightDirectory, int process, int numProcesses) {
+		Preconditions.checkArgument(process >= 0 && process < numProcesses, "Process %s is not between 0 and %s", process, numProcesses - 1);
+		useMappedWeights(weightDirectory);
+		this.sharedProcess = process;
+		this.numSharedProcesses = numProcesses;
+		return this;
+	}
+	
+	/** 
+	 * Pad the rows of the weights to whole cache lines, so that threads updating the rows of
+	 * different words never contend for the same cache line. Worthwhile when training with many
+	 * threads, especially with small layer sizes. Ignored for weights outside of the heap.
+	 * <p>
+	 * By default, rows are not padded
+	 */
+	public Word2VecTrainerBuilder usePaddedRows() {
+		this.padRows = true;
+		return this;
+	}
+	
+	/** 
+	 * Keep per-thread replicas of the output weights of the most frequent words, and of the nodes
+	 * nearest the root of the Huffman tree with hierarchical softmax, which nearly every word updates.
+	 * Threads then stop contending for these few rows, at the cost of seeing each other's updates
+	 * to them only every syncInterval words. Worthwhile with many threads.
+	 * <p>
+	 * By default, no rows are replicated
+	 * @param hotRows Number of rows to replicate, e.g. 100
+	 * @param syncInterval Number of words each thread trains between merging its replicas, e.g. 10,000
+	 */
+	public Word2VecTrainerBuilder replicateHotRows(int hotRows, int syncInterval) {
+		Preconditions.checkArgument(hotRows >= 0, "Value must be non-negative");
+		Preconditions.checkArgument(syncInterval > 0, "Value must be positive");
+		this.hotRows = hotRows;
+		this.hotRowSyncInterval = syncInterval;
+		return this;
+	}
+	
+	/** 
+	 * Periodically write a checkpoint of the vocab, weights and progress to the given file, so that
+	 * training can be picked up with {@link #resumeFrom(File)} if it is cut short.
+	 * <p>
+	 * Checkpoints are written in the background while training carries on, and once more at the end.
+	 */
+	public Word2VecTrainerBuilder useCheckpoints(File checkpointFile, long interval, TimeUnit unit) {
+		Preconditions.checkArgument(interval > 0, "Value must be positive");
+		this.checkpointFile = Preconditions.checkNotNull(checkpointFile);
+		this.checkpointInterval = interval;
+		this.checkpointIntervalUnit = Preconditions.checkNotNull(unit);
+		return this;
+	}
+	
+	/** 
+	 * Resume training from a checkpoint written with {@link #useCheckpoints(File, long, TimeUnit)}.
+	 * The vocab is taken from the checkpoint rather than learned again.
+	 * <p>
+	 * Training must be given the same sentences, and the neural network must be configured
+	 * the same way, as when the checkpoint was written.
+	 */
+	public Word2VecTrainerBuilder resumeFrom(File checkpointFile) throws IOException {
+		this.checkpoint = Checkpoint.read(checkpointFile);
+		return this;
+	}
+	
+	/** 
+	 * Initialize the weights from an existing model rather than at random, e.g. to train a
+	 * previous model for an iteration or two on new data
+	 * <p>
+	 * The vocab is still learned from the training data. Words the model already knows start from
+	 * its vectors and new words start at random; words missing from the training data are dropped.
+	 * The model must have the same layer size.
+	 */
+	public Word2VecTrainerBuilder warmStartFrom(Word2VecModel model) {
+		this.warmStartModel = Preconditions.checkNotNull(model);
+		this.warmStartCheckpoint = null;
+		return this;
+	}
+	
+	/** 
+	 * Like {@link #warmStartFrom(Word2VecModel)} from a checkpoint written with
+	 * {@link #useCheckpoints(File, long, TimeUnit)}, whose word counts are added to those of the
+	 * training data. The negative sampling weights are carried over too.
+	 */
+	public Word2VecTrainerBuilder warmStartFrom(File checkpointFile) throws IOException {
+		this.warmStartCheckpoint = Checkpoint.read(checkpointFile);
+		this.warmStartModel = null;
+		return this;
+	}
+	
+	/** 
+	 * Train together with other processes, each on its own shard of the corpus, through the
+	 * {@link org.allenai.word2vec.neuralnetwork.TrainingCoordinator} listening on the given port.
+	 * The processes learn their vocab together, and periodically average the changes to their weights,
+	 * so they all end up with the same model. They must be configured the same way.
+	 */
+	public Word2VecTrainerBuilder useCoordinator(String host, int port) {
+		this.coordinator = HostAndPort.fromParts(host, port);
+		return this;
+	}
+	
+	/** 
+	 * @see {@link KernelType}
+	 * <p>
+	 * Defaults to {@link KernelType#SCALAR}
+	 */
+	public Word2VecTrainerBuilder setKernel(KernelType kernelType) {
+		this.kernelType = Preconditions.checkNotNull(kernelType);
+		return this;
+	}
+	
 	/** Set a progress listener */
 	public Word2VecTrainerBuilder setListener(TrainingProgressListener listener) {
 		this.listener = listener;
 		return this;
 	}
 	
+	/** 
+	 * Set how often the progress listener is called with the latest progress
+	 * <p>
+	 * Defaults to every 100 milliseconds
+	 */
+	public Word2VecTrainerBuilder setProgressInterval(long interval, TimeUnit unit) {
+		Preconditions.checkArgument(interval > 0, "Value must be positive");
+		this.progressInterval = interval;
+		this.progressIntervalUnit = Preconditions.checkNotNull(unit);
+		return this;
+	}
+	
+	/** 
+	 * Join pairs of words that occur together often enough into single tokens before learning the
+	 * vocab, e.g. "new_york", as word2phrase of the C version does with e.g. a min count of 5 and a
+	 * threshold of 100. This costs one more pass over the sentences, counting on all threads, after
+	 * which the sentences are rewritten as they are read, with nothing written to disk.
+	 * <p>
+	 * At most maxCounts distinct words and pairs are counted, e.g. 10,000,000, with the rarest ones
+	 * dropped to stay within that limit.
+	 * <p>
+	 * By default, no phrases are detected
+	 */
+	public Word2VecTrainerBuilder detectPhrases(int minCount, double threshold, int maxCounts) {
+		Preconditions.checkArgument(minCount > 0, "Value must be positive");
+		Preconditions.checkArgument(threshold > 0, "Value must be positive");
+		Preconditions.checkArgument(maxCounts > 0 && maxCounts <= TokenCounts.MAX_SIZE,
+				"Value must be between 1 and %s", TokenCounts.MAX_SIZE);
+		this.phraseMinCount = minCount;
+		this.phraseThreshold = threshold;
+		this.maxPhraseCounts = maxCounts;
+		return this;
+	}
+	
+	/** 
+	 * Also train vectors for the character n-grams of the words, from minN to maxN characters long,
+	 * e.g. 3 to 6, hashed into the given number of buckets, e.g. 2,000,000, as in fastText. The
+	 * vector of a word is the mean of its own vector and those of its n-grams, and the resulting
+	 * {@link SubwordWord2VecModel} can compose vectors for words outside the vocab from their n-grams.
+	 * <p>
+	 * By default, only whole words are trained
+	 */
+	public Word2VecTrainerBuilder useSubwords(int minN, int maxN, int numBuckets) {
+		this.subwords = new Subwords(minN, maxN, numBuckets);
+		return this;
+	}
+	
+	/** 
+	 * Estimate the loss of each iteration from a sample of the positions trained, one in every
+	 * sampleInterval, e.g. 100. The loss terms are taken from the dot products the gradients are
+	 * computed from anyway, so the cost is small. The estimates are logged and reported in
+	 * {@link TrainingStats#iterationLosses()}.
+	 * <p>
+	 * By default, the loss is not estimated
+	 */
+	public Word2VecTrainerBuilder estimateLoss(int sampleInterval) {
+		Preconditions.checkArgument(sampleInterval > 0, "Value must be positive");
+		this.lossSampleInterval = sampleInterval;
+		return this;
+	}
+	
+	/** 
+	 * Stop before the set number of iterations once an iteration improves the loss estimated with
+	 * {@link #estimateLoss(int)} by less than the given share of the loss of the previous iteration,
+	 * e.g. 0.01. The learning rate still decays over the full number of iterations.
+	 * <p>
+	 * By default, all iterations are trained
+	 */
+	public Word2VecTrainerBuilder stopEarly(double minLossImprovement) {
+		Preconditions.checkArgument(minLossImprovement > 0, "Value must be positive");
+		this.minLossImprovement = minLossImprovement;
+		return this;
+	}
+	
+	/** 
+	 * Set a listener for {@link TrainingStats} on the training of the neural network, e.g. the words
+	 * trained per second by each thread and how long the threads waited for sentences, reported at the
+	 * given interval
+	 */
+	public Word2VecTrainerBuilder setStatsListener(TrainingStatsListener statsListener, long interval, TimeUnit unit) {
+		Preconditions.checkArgument(interval > 0, "Value must be positive");
+		this.statsListener = Preconditions.checkNotNull(statsListener);
+		this.statsInterval = interval;
+		this.statsIntervalUnit = Preconditions.checkNotNull(unit);
+		return this;
+	}
+	
+	/** 
+	 * Set a listener to be handed a {@link Searcher} over the model as it is being trained, e.g. to
+	 * check the nearest neighbors of a few words while a long run is going
+	 */
+	public Word2VecTrainerBuilder setSearcherListener(LiveSearcherListener searcherListener) {
+		this.searcherListener = searcherListener;
+		return this;
+	}
+	
+	/** 
+	 * Train the model on sentences from a {@link Stream}
+	 * <p>
+	 * Training makes one pass over the data to learn the vocabulary (unless {@link #useVocab(Multiset)}
+	 * is specified) and one per iteration, obtaining a new stream from the {@link Supplier} for each pass.
+	 * Each stream is closed once it has been fully consumed. Sentences are streamed to the workers,
+	 * so a corpus that is read lazily, e.g. with {@link java.nio.file.Files#lines(java.nio.file.Path)},
+	 * is trained in constant memory.
+	 */
+	public Word2VecModel train(final Supplier<? extends Stream<List<String>>> sentences) throws InterruptedException {
+		return train(new Iterable<List<String>>() {
+			@Override public Iterator<List<String>> iterator() {
+				final Stream<List<String>> stream = sentences.get();
+				final Iterator<List<String>> it = stream.iterator();
+				return new AbstractIterator<List<String>>() {
+					@Override protected List<String> computeNext() {
+						if (it.hasNext())
+							return it.next();
+						stream.close();
+						return endOfData();
+					}
+				};
+			}
+		});
+	}
+	
 	/** Train the model */
 	public Word2VecModel train(Iterable<List<String>> sentences) throws InterruptedException {
 		this.type = MoreObjects.firstNonNull(type, NeuralNetworkType.CBOW);
@@ -216,6 +573,38 @@ public class Word2VecTrainerBuilder {
 		this.windowSize = MoreObjects.firstNonNull(windowSize, 5);
 		this.downSampleRate = MoreObjects.firstNonNull(downSampleRate, 0.001);
 		this.minFrequency = MoreObjects.firstNonNull(minFrequency, 5);
+		this.maxVocabSize = MoreObjects.firstNonNull(maxVocabSize, 21_000_000);
+		this.weightStorage = MoreObjects.firstNonNull(weightStorage, WeightStorage.DOUBLE_ARRAY);
+		this.negativeSamplerType = MoreObjects.firstNonNull(negativeSamplerType, NegativeSamplerType.ALIAS);
+		this.kernelType = MoreObjects.firstNonNull(kernelType, KernelType.SCALAR);
+		this.progressInterval = MoreObjects.firstNonNull(progressInterval, 100L);
+		this.progressIntervalUnit = MoreObjects.firstNonNull(progressIntervalUnit, TimeUnit.MILLISECONDS);
+		Preconditions.checkState(weightStorage != WeightStorage.MAPPED || weightDirectory != null,
+				"Use useMappedWeights(File) to specify where to map the weights");
+		Preconditions.checkState(warmStartModel == null || warmStartModel.layerSize == layerSize,
+				"Cannot warm start from a model with layer size %s instead of %s", warmStartModel == null ? 0 : warmStartModel.layerSize, layerSize);
+		Preconditions.checkState(checkpoint == null || (warmStartModel == null && warmStartCheckpoint == null),
+				"Cannot both resume from a checkpoint and warm start");
+		Preconditions.checkState(coordinator == null || (checkpoint == null && vocab == null),
+				"Cannot train with a coordinator when resuming from a checkpoint or using a pre-built vocab");
+		Preconditions.checkState(numSharedProcesses == 0 || weightStorage == WeightStorage.MAPPED, 
+				"Shared weights must be %s", WeightStorage.MAPPED);
+		Preconditions.checkState(numSharedProcesses == 0 || vocab != null,
+				"Use useVocab(Multiset) to give all processes sharing weights the same vocab");
+		Preconditions.checkState(numSharedProcesses == 0
+				|| (checkpointFile == null && checkpoint == null && warmStartModel == null && warmStartCheckpoint == null && coordinator == null),
+				"Cannot share weights with checkpoints, warm starts or a coordinator");
+		Preconditions.checkState(vocabSketchBytes == 0 || (vocab == null && coordinator == null),
+				"Cannot sketch the vocab with a pre-built vocab or with a coordinator, whose shards would each drop different rare words");
+		Preconditions.checkState(maxPhraseCounts == 0 || (vocab == null && checkpoint == null && coordinator == null),
+				"Cannot detect phrases with a pre-built vocab, when resuming from a checkpoint or with a coordinator");
+		Preconditions.checkState(subwords == null
+				|| (checkpointFile == null && checkpoint == null && warmStartModel == null && warmStartCheckpoint == null && numSharedProcesses == 0),
+				"Cannot train subwords with checkpoints, warm starts or shared weights");
+		Preconditions.checkState(minLossImprovement == 0 || lossSampleInterval > 0,
+				"Use estimateLoss(int) to estimate the loss that early stopping is based on");
+		Preconditions.checkState(minLossImprovement == 0 || (coordinator == null && numSharedProcesses == 0),
+				"Cannot stop early when training with other processes, which may disagree on when to stop");
 		this.listener = MoreObjects.firstNonNull(listener, new TrainingProgressListener() {
 			@Override
 			public void update(Stage stage, double progress) {
@@ -227,21 +616,52 @@ public class Word2VecTrainerBuilder {
 				? Optional.<Multiset<String>>absent()
 				: Optional.of(this.vocab);
 		
-		return new Word2VecTrainer(
-				minFrequency,
-				vocab,
-				new NeuralNetworkConfig(
-						type,
-						numThreads,
-						iterations,
-						layerSize,
-						windowSize,
-						negativeSamples,
-						downSampleRate,
-						initialLearningRate,
-						useHierarchicalSoftmax
-					)
-			).train(LOG, listener, sentences);
+		NeuralNetworkConfig config = new NeuralNetworkConfig(
+				type,
+				numThreads,
+				iterations,
+				layerSize,
+				windowSize,
+				negativeSamples,
+				downSampleRate,
+				initialLearningRate,
+				useHierarchicalSoftmax
+			).setWeightStorage(weightStorage)
+				.setWeightDirectory(weightDirectory)
+				.setPadRows(padRows)
+				.setHotRowReplicas(hotRows, hotRowSyncInterval)
+				.setSharedWeights(sharedProcess, numSharedProcesses)
+				.setNegativeSamplerType(negativeSamplerType)
+				.setKernelType(kernelType)
+				.setLossSampleInterval(lossSampleInterval)
+				.setMinLossImprovement(minLossImprovement)
+				.setSubwords(subwords);
+		if (checkpointFile != null)
+			config.setCheckpoint(checkpointFile, checkpointInterval, checkpointIntervalUnit);
+		if (statsListener != null)
+			config.setStatsListener(statsListener, statsInterval, statsIntervalUnit);
+		
+		VocabCounter vocabCounter = vocabSketchBytes > 0
+				? new VocabCounter.SketchCounter(numThreads, maxVocabSize, minFrequency, vocabSketchBytes, recountVocab)
+				: new VocabCounter.TableCounter(numThreads, maxVocabSize);
+		if (maxPhraseCounts > 0)
+			this.phraseDetector = new Phrases.Detector(phraseMinCount, phraseThreshold, maxPhraseCounts, numThreads);
+		
+		try (ProgressReporter reporter = new ProgressReporter(listener, progressInterval, progressIntervalUnit)) {
+			return new Word2VecTrainer(
+					minFrequency,
+					vocabCounter,
+					vocab,
+					Optional.fromNullable(checkpoint),
+					Optional.fromNullable(warmStartModel),
+					Optional.fromNullable(warmStartCheckpoint),
+					Optional.fromNullable(coordinator),
+					Optional.fromNullable(searcherListener),
+					Optional.fromNullable(subwords),
+					Optional.fromNullable(phraseDetector),
+					config
+				).train(LOG, reporter, sentences);
+		}
 	}
 	
 	/** Listener for model training progress */
@@ -257,10 +677,36 @@ public class Word2VecTrainerBuilder {
 		/** 
 		 * Called during word2vec training
 		 * <p>
-		 * Note that this is called in a separate thread from the processing thread
+		 * Note that this is called in a separate thread from the processing thread, at the rate set
+		 * with {@link Word2VecTrainerBuilder#setProgressInterval}. Each call passes on the latest
+		 * progress of a stage, so a stage that progressed several times in between is only reported
+		 * once, but every stage that was reached is reported, in order.
 		 * @param stage Current {@link Stage} of processing
 		 * @param progress Progress of the current stage as a double value between 0 and 1
 		 */
 		void update(Stage stage, double progress);
 	}
+	
+	/** Listener for {@link TrainingStats} on the training of the neural network */
+	public interface TrainingStatsListener {
+		/** 
+		 * Called at a fixed rate while the neural network is trained, and once more when done
+		 * <p>
+		 * Note that this is called in a separate thread from the processing thread
+		 */
+		void update(TrainingStats stats);
+	}
+	
+	/** Listener for a {@link Searcher} over the model while it is being trained */
+	public interface LiveSearcherListener {
+		/** 
+		 * Called from the training thread once the weights are initialized, before the neural network
+		 * is trained
+		 * <p>
+		 * Each query of the searcher reads the current weights without copying them up front or
+		 * locking them, so queries may run at any time without stalling training, and see vectors
+		 * that are still being updated. Once training is done, the searcher sees the final model.
+		 */
+		void trainingStarted(Searcher searcher);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package org.allenai.word2vec.huffman;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Huffman codes of a vocab, by word id, i.e. the index of the word in the vocab sorted by
+ * frequency descending
+ * <p>
+ * The codes of all the words are packed back to back into one array, and so are the indices of
+ * their inner nodes. The code of word i is found between {@link #offsets()}[i] and
+ * {@link #offsets()}[i + 1] of {@link #codes()}, with the matching inner nodes at the same
+ * positions of {@link #points()}. The arrays are shared, not copied, and must not be modified.
+ */
+public final class HuffmanCodes {
+	private final ImmutableList<String> tokens;
+	/** Id plus one of each token by slot of an open addressing table, 0 for an empty slot */
+	private final int[] ids;
+	/** Number of bits of the hash that select the slot, i.e. log2 of the capacity */
+	private final int bits;
+	private final long[] counts;
+	private final byte[] codes;
+	private final int[] points;
+	private final int[] offsets;
+
+	/**
+	 * @param tokens Tokens sorted by frequency descending
+	 * @param counts Frequency of each token
+	 * @param codes Codes of the tokens, back to back
+	 * @param points Inner nodes matching the codes
+	 * @param offsets Start of the code of each token, with an extra trailing entry for the end
+	 */
+	public HuffmanCodes(List<String> tokens, long[] counts, byte[] codes, int[] points, int[] offsets) {
+		Preconditions.checkArgument(tokens.size() == counts.length && tokens.size() + 1 == offsets.length,
+				"Expected %s counts and %s offsets, not %s and %s", tokens.size(), tokens.size() + 1, counts.length, offsets.length);
+		Preconditions.checkArgument(codes.length == points.length && codes.length == offsets[tokens.size()],
+				"Expected %s codes and points, not %s and %s", offsets[tokens.size()], codes.length, points.length);
+		this.tokens = ImmutableList.copyOf(tokens);
+		// At most half full, so that probing stays short
+		int capacity = 2;
+		while (capacity < 2L * this.tokens.size())
+			capacity <<= 1;
+		this.ids = new int[capacity];
+		this.bits = Integer.numberOfTrailingZeros(capacity);
+		for (int i = 0; i < this.tokens.size(); i++) {
+			int slot = slot(this.tokens.get(i));
+			Preconditions.checkArgument(ids[slot] == 0, "Duplicate token %s", this.tokens.get(i));
+			ids[slot] = i + 1;
+		}
+		this.counts = counts;
+		this.codes = codes;
+		this.points = points;
+		this.offsets = offsets;
+	}
+
+	/** @return Slot of the token in {@link #ids}, or the empty slot it would take */
+	private int slot(String token) {
+		// Fibonacci hashing, as in TokenCounts
+		int mask = ids.length - 1;
+		int slot = (token.hashCode() * 0x9E3779B9) >>> (32 - bits);
+		while (ids[slot] != 0 && !tokens.get(ids[slot] - 1).equals(token))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/** @return Number of words */
+	public int size() {
+		return counts.length;
+	}
+
+	/** @return Words, in the order of their ids */
+	public ImmutableList<String> tokens() {
+		return tokens;
+	}
+
+	/** @return Word with the given id */
+	public String token(int id) {
+		return tokens.get(id);
+	}
+
+	/** @return Id of the given word, or -1 if it is not in the vocab */
+	public int id(String token) {
+		return ids[slot(token)] - 1;
+	}
+
+	/** @return Frequency of the word with the given id */
+	public long count(int id) {
+		return counts[id];
+	}
+
+	/** @return Frequencies of the words, by id */
+	public long[] counts() {
+		return counts;
+	}
+
+	/** @return Codes of all the words, back to back */
+	public byte[] codes() {
+		return codes;
+	}
+
+	/** @return Inner node indices matching {@link #codes()} */
+	public int[] points() {
+		return points;
+	}
+
+	/** @return Offsets into {@link #codes()} and {@link #points()} by id, with an extra trailing entry */
+	public int[] offsets() {
+		return offsets;
+	}
+}
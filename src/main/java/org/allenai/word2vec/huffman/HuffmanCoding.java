@@ -1,14 +1,15 @@
 package org.allenai.word2vec.huffman;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Multiset.Entry;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
 
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Word2Vec library relies on a Huffman encoding scheme
@@ -18,26 +19,11 @@ import java.util.Map;
  * <p>
  */
 public class HuffmanCoding {
-	/** Node */
-	public static class HuffmanNode {
-		/** Array of 0's and 1's */
-		public final byte[] code;
-		/** Array of parent node index offsets */
-		public final int[] point;
-		/** Index of the Huffman node */
-		public final int idx;
-		/** Frequency of the token */
-		public final int count;
-		
-		private HuffmanNode(byte[] code, int[] point, int idx, int count) {
-			this.code = code;
-			this.point = point;
-			this.idx = idx;
-			this.count = count;
-		}
-	}
-
-	private final ImmutableMultiset<String> vocab;
+	/** Above this many words, filling the codes is split between threads */
+	private static final int PARALLEL_THRESHOLD = 1 << 14;
+	
+	private final List<String> tokens;
+	private final long[] counts;
 	private final TrainingProgressListener listener;
 	
 	/**
@@ -45,26 +31,40 @@ public class HuffmanCoding {
 	 * @param listener Progress listener
 	 */
 	public HuffmanCoding(ImmutableMultiset<String> vocab, TrainingProgressListener listener) {
-		this.vocab = vocab;
+		this(ImmutableList.copyOf(vocab.elementSet()), counts(vocab), listener);
+	}
+	
+	/**
+	 * @param tokens Tokens sorted by frequency descending
+	 * @param counts Frequency of each token, in the same order
+	 * @param listener Progress listener
+	 */
+	public HuffmanCoding(List<String> tokens, long[] counts, TrainingProgressListener listener) {
+		Preconditions.checkArgument(tokens.size() == counts.length, "Expected %s counts, not %s", tokens.size(), counts.length);
+		this.tokens = tokens;
+		this.counts = counts;
 		this.listener = listener;
 	}
 	
+	private static long[] counts(ImmutableMultiset<String> vocab) {
+		long[] counts = new long[vocab.elementSet().size()];
+		int i = 0;
+		for (Entry<String> e : vocab.entrySet())
+			counts[i++] = e.getCount();
+		return counts;
+	}
+	
 	/**
-	 * @return {@link Map} from each given token to a {@link HuffmanNode} 
+	 * @return {@link HuffmanCodes} of the given tokens
 	 */
-	public Map<String, HuffmanNode> encode() throws InterruptedException {
-		final int numTokens = vocab.elementSet().size();
+	public HuffmanCodes encode() throws InterruptedException {
+		final int numTokens = tokens.size();
 		
 		int[] parentNode = new int[numTokens * 2 + 1];
 		byte[] binary = new byte[numTokens * 2 + 1];
 		long[] count = new long[numTokens * 2 + 1];
-		int i = 0;
-		for (Entry<String> e : vocab.entrySet()) {
-			count[i] = e.getCount();
-			i++;
-		}
-		Preconditions.checkState(i == numTokens, "Expected %s to match %s", i, numTokens);
-		for (i = numTokens; i < count.length; i++)
+		System.arraycopy(counts, 0, count, 0, numTokens);
+		for (int i = numTokens; i < count.length; i++)
 			count[i] = (long)1e15;
 		
 		createTree(numTokens, count, binary, parentNode);
@@ -125,47 +125,90 @@ public class HuffmanCoding {
 		}
 	}
 	
-	/** @return Ordered map from each token to its {@link HuffmanNode}, ordered by frequency descending */
-	private Map<String, HuffmanNode> encode(byte[] binary, int[] parentNode) throws InterruptedException {
-		int numTokens = vocab.elementSet().size();
+	/** 
+	 * Pack the codes of the tokens back to back. Every parent has a higher index than its children,
+	 * so the depths of all the nodes take one pass down from the root, which gives the offsets of
+	 * the codes. The codes are then filled in parallel, each from its leaf up to the root.
+	 */
+	private HuffmanCodes encode(final byte[] binary, final int[] parentNode) throws InterruptedException {
+		final int numTokens = tokens.size();
 		
-		// Now assign binary code to each unique token
-		ImmutableMap.Builder<String, HuffmanNode> result = ImmutableMap.builder();
-		int nodeIdx = 0;
-		for (Entry<String> e : vocab.entrySet()) {
-			int curNodeIdx = nodeIdx;
-			ArrayList<Byte> code = new ArrayList<>();
-			ArrayList<Integer> points = new ArrayList<>();
-			while (true) {
-				code.add(binary[curNodeIdx]);
-				points.add(curNodeIdx);
-				curNodeIdx = parentNode[curNodeIdx];
-				if (curNodeIdx == numTokens * 2 - 2)
-					break;
-			}
-			int codeLen = code.size();
-			final int count = e.getCount();
-			final byte[] rawCode = new byte[codeLen];
-			final int[] rawPoints = new int[codeLen + 1];
-			
-			rawPoints[0] = numTokens - 2;
-			for (int i = 0; i < codeLen; i++) {
-				rawCode[codeLen - i - 1] = code.get(i);
-				rawPoints[codeLen - i] = points.get(i) - numTokens;
+		final int[] offsets = new int[numTokens + 1];
+		if (numTokens > 0) {
+			int root = numTokens * 2 - 2;
+			int[] depth = new int[root + 1];
+			for (int i = root - 1; i >= 0; i--)
+				depth[i] = depth[parentNode[i]] + 1;
+			// A vocab of one word has a code of one bit, for its leaf that is also the root
+			for (int i = 0; i < numTokens; i++)
+				offsets[i + 1] = offsets[i] + Math.max(depth[i], 1);
+		}
+		
+		Fill fill = new Fill(binary, parentNode, offsets, Thread.currentThread(), 0, numTokens);
+		ForkJoinPool.commonPool().invoke(fill);
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedException("Interrupted while encoding huffman tree");
+		// Listeners are only ever called from the encoding thread, so the filling threads do not report progress
+		listener.update(Stage.CREATE_HUFFMAN_ENCODING, 1.0);
+		
+		return new HuffmanCodes(tokens, counts, fill.codes, fill.points, offsets);
+	}
+	
+	/** Fills the codes of a range of words, forking the halves of large ranges */
+	private static final class Fill extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final byte[] binary;
+		private final int[] parentNode;
+		private final int[] offsets;
+		/** Thread that is encoding, whose interruption stops the remaining ranges */
+		private final Thread caller;
+		private final int from;
+		private final int to;
+		final byte[] codes;
+		final int[] points;
+		
+		Fill(byte[] binary, int[] parentNode, int[] offsets, Thread caller, int from, int to) {
+			this(binary, parentNode, offsets, caller, from, to,
+					new byte[offsets[offsets.length - 1]], new int[offsets[offsets.length - 1]]);
+		}
+		
+		private Fill(byte[] binary, int[] parentNode, int[] offsets, Thread caller, int from, int to, byte[] codes, int[] points) {
+			this.binary = binary;
+			this.parentNode = parentNode;
+			this.offsets = offsets;
+			this.caller = caller;
+			this.from = from;
+			this.to = to;
+			this.codes = codes;
+			this.points = points;
+		}
+		
+		@Override protected void compute() {
+			if (to - from > PARALLEL_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(
+						new Fill(binary, parentNode, offsets, caller, from, mid, codes, points),
+						new Fill(binary, parentNode, offsets, caller, mid, to, codes, points));
+				return;
 			}
+			if (caller.isInterrupted())
+				return;
 			
-			String token = e.getElement();
-			result.put(token, new HuffmanNode(rawCode, rawPoints, nodeIdx, count));
-			
-			if (nodeIdx % 1_000 == 0) {
-				if (Thread.currentThread().isInterrupted())
-					throw new InterruptedException("Interrupted while encoding huffman tree");
-				listener.update(Stage.CREATE_HUFFMAN_ENCODING, 0.5 + (0.5 * nodeIdx) / numTokens);
+			int numTokens = offsets.length - 1;
+			for (int id = from; id < to; id++) {
+				int offset = offsets[id];
+				int codeLen = offsets[id + 1] - offset;
+				int node = id;
+				for (int i = 0; i < codeLen; i++) {
+					codes[offset + codeLen - i - 1] = binary[node];
+					// The leaf itself is not an inner node
+					if (i > 0)
+						points[offset + codeLen - i] = node - numTokens;
+					node = parentNode[node];
+				}
+				points[offset] = numTokens - 2;
 			}
-			
-			nodeIdx++;
 		}
-		
-		return result.build();
 	}
 }
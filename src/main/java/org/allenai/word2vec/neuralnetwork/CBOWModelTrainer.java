@@ -1,35 +1,31 @@
 package org.allenai.word2vec.neuralnetwork;
 
-import com.google.common.collect.Multiset;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
-import org.allenai.word2vec.huffman.HuffmanCoding.HuffmanNode;
 import org.allenai.word2vec.Word2VecTrainerBuilder;
-import org.allenai.word2vec.huffman.HuffmanCoding;
+import org.allenai.word2vec.huffman.HuffmanCodes;
 
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Trainer for neural network using continuous bag of words
  */
 class CBOWModelTrainer extends NeuralNetworkTrainer {
 	
-	CBOWModelTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-		super(config, counts, huffmanNodes, listener);
+	CBOWModelTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+		super(config, huffmanCodes, listener);
 	}
 	
 	/** {@link Worker} for {@link CBOWModelTrainer} */
 	private class CBOWWorker extends Worker {
-		private CBOWWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
-			super(randomSeed, iter, batch);
+		private CBOWWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
+			super(index, randomSeed, iter, batches);
 		}
 		
-		@Override void trainSentence(List<String> sentence) {
-			int sentenceLength = sentence.size();
-			
-			for (int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++) {
-				String word = sentence.get(sentencePosition);
-				HuffmanCoding.HuffmanNode huffmanNode = huffmanNodes.get(word);
+		@Override void trainSentence(int[] sentence, int start, int end) {
+			for (int sentencePosition = start; sentencePosition < end; sentencePosition++) {
+				int word = sentence[sentencePosition];
+				int codeEnd = codeOffsets[word + 1];
+				nextPosition();
 
 				for (int c = 0; c < layer1_size; c++)
 					neu1[c] = 0;
@@ -45,12 +41,10 @@ class CBOWModelTrainer extends NeuralNetworkTrainer {
 					if (a == window)
 						continue;
 					int c = sentencePosition - window + a;
-					if (c < 0 || c >= sentenceLength)
+					if (c < start || c >= end)
 						continue;
-					int idx = huffmanNodes.get(sentence.get(c)).idx;
-					for (int d = 0; d < layer1_size; d++) {
-						neu1[d] += syn0[idx][d];
-					}
+					int idx = sentence[c];
+					addInputTo(idx, neu1);
 					
 					cw++;
 				}
@@ -58,49 +52,46 @@ class CBOWModelTrainer extends NeuralNetworkTrainer {
 				if (cw == 0)
 					continue;
 				
-				for (int c = 0; c < layer1_size; c++)
-					neu1[c] /= cw;
+				kernel.divide(neu1, cw, layer1_size);
 				
 				if (config.useHierarchicalSoftmax) {
-					for (int d = 0; d < huffmanNode.code.length; d++) {
-						double f = 0;
-						int l2 = huffmanNode.point[d];
+					for (int d = codeOffsets[word]; d < codeEnd; d++) {
+						int l2 = points[d];
 						// Propagate hidden -> output                                                                                                                                                                     
-						for (int c = 0; c < layer1_size; c++)
-							f += neu1[c] * syn1[l2][c];
+						double f = syn1.dot(l2, neu1);
+						if (sampleLoss)
+							addLoss(f, 1 - codes[d]);
 						if (f <= -MAX_EXP || f >= MAX_EXP)
 							continue;
 						else
 							f = EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
 						// 'g' is the gradient multiplied by the learning rate                                                                                                                                            
-						double g = (1 - huffmanNode.code[d] - f) * alpha;
+						double g = (1 - codes[d] - f) * alpha;
 						// Propagate errors output -> hidden                                                                                                                                                              
-						for (int c = 0; c < layer1_size; c++)
-							neu1e[c] += g * syn1[l2][c];
+						syn1.addRowTo(l2, g, neu1e);
 						// Learn weights hidden -> output                                                                                                                                                                 
-						for (int c = 0; c < layer1_size; c++)
-							syn1[l2][c] += g * neu1[c];
+						syn1.addToRow(l2, g, neu1);
 					}
 				}
 				
-				handleNegativeSampling(huffmanNode);
+				if (config.negativeSamples > 0)
+					handleNegativeSampling(word, neu1);
 				
 				// hidden -> in                                                                                                                                                                                     
 				for (int a = b; a < window * 2 + 1 - b; a++) {
 					if (a == window)
 						continue;
 					int c = sentencePosition - window + a;
-					if (c < 0 || c >= sentenceLength)
+					if (c < start || c >= end)
 						continue;
-					int idx = huffmanNodes.get(sentence.get(c)).idx;
-					for (int d = 0; d < layer1_size; d++)
-						syn0[idx][d] += neu1e[d];
+					int idx = sentence[c];
+					addToInput(idx, neu1e);
 				}
 			}
 		}
 	}
 
-	@Override Worker createWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
-		return new CBOWWorker(randomSeed, iter, batch);
+	@Override Worker createWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
+		return new CBOWWorker(index, randomSeed, iter, batches);
 	}
 }
\ No newline at end of file
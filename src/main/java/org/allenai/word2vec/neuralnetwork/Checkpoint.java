@@ -0,0 +1,275 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.io.CountingInputStream;
+import com.google.common.primitives.Ints;
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.allenai.word2vec.huffman.HuffmanCodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Snapshot of the state of a {@link NeuralNetworkTrainer}: the vocab with its Huffman codes,
+ * the progress counters and the weights
+ * <p>
+ * Checkpoints are written by a background thread while the workers keep training, so the
+ * weights are not a snapshot of a single point in time, no more than the Hogwild updates are.
+ * Training resumes after the last sentence up to which all batches had been trained when the
+ * checkpoint was taken.
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x77327663;
+	private static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final File file;
+	/** Position of the weights in the file */
+	private final long weightsOffset;
+
+	private final int layerSize;
+	private final boolean hasSyn1;
+	private final boolean hasSyn1neg;
+	private final long numSentences;
+	/** Iteration being trained, counting down to 1, or 0 if training completed */
+	final int iteration;
+	/** Number of sentences of the current iteration that have been trained */
+	final long completedSentences;
+	/** Words trained up to {@link #completedSentences}, across all iterations */
+	final long actualWordCount;
+	final double alpha;
+	private final ImmutableMultiset<String> vocab;
+	private final HuffmanCodes huffmanCodes;
+
+	private Checkpoint(File file, DataInputStream in, CountingInputStream counter) throws IOException {
+		this.file = file;
+		int magic = in.readInt();
+		Preconditions.checkState(magic == MAGIC, "%s is not a checkpoint", file);
+		int version = in.readInt();
+		Preconditions.checkState(version == VERSION, "Unsupported checkpoint version %s", version);
+
+		this.layerSize = in.readInt();
+		this.hasSyn1 = in.readBoolean();
+		this.hasSyn1neg = in.readBoolean();
+		this.numSentences = in.readLong();
+		this.iteration = in.readInt();
+		this.completedSentences = in.readLong();
+		this.actualWordCount = in.readLong();
+		this.alpha = in.readDouble();
+
+		int vocabSize = in.readInt();
+		ImmutableMultiset.Builder<String> vocab = ImmutableMultiset.builder();
+		String[] words = new String[vocabSize];
+		long[] counts = new long[vocabSize];
+		int[] offsets = new int[vocabSize + 1];
+		byte[] codes = new byte[vocabSize];
+		int[] points = new int[vocabSize];
+		for (int idx = 0; idx < vocabSize; idx++) {
+			words[idx] = in.readUTF();
+			counts[idx] = in.readLong();
+			int codeLen = in.readUnsignedByte();
+			int offset = offsets[idx];
+			offsets[idx + 1] = offset + codeLen;
+			if (offsets[idx + 1] > codes.length) {
+				codes = Arrays.copyOf(codes, Math.max(offsets[idx + 1], codes.length * 2));
+				points = Arrays.copyOf(points, codes.length);
+			}
+			in.readFully(codes, offset, codeLen);
+			for (int i = 0; i < codeLen; i++)
+				points[offset + i] = in.readInt();
+			// The last point is the leaf itself, which is not an inner node
+			in.readInt();
+			vocab.addCopies(words[idx], Ints.saturatedCast(counts[idx]));
+		}
+		this.vocab = vocab.build();
+		this.huffmanCodes = new HuffmanCodes(ImmutableList.copyOf(words), counts,
+				Arrays.copyOf(codes, offsets[vocabSize]), Arrays.copyOf(points, offsets[vocabSize]), offsets);
+		this.weightsOffset = counter.getCount();
+	}
+
+	/** Read the vocab and progress of a checkpoint, leaving the weights to {@link #createTrainer} */
+	public static Checkpoint read(File file) throws IOException {
+		try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+			return new Checkpoint(file, new DataInputStream(counter), counter);
+		}
+	}
+
+	/** 
+	 * @return Vocab, sorted by frequency descending. Counts beyond {@link Integer#MAX_VALUE} are
+	 * capped, see {@link #huffmanCodes()} for the exact counts.
+	 */
+	public ImmutableMultiset<String> vocab() {
+		return vocab;
+	}
+
+	/** @return {@link HuffmanCodes} of the vocab, in the same order */
+	public HuffmanCodes huffmanCodes() {
+		return huffmanCodes;
+	}
+
+	/** @return Number of sentences in the corpus being trained */
+	public long numSentences() {
+		return numSentences;
+	}
+
+	/** @return {@link NeuralNetworkTrainer} with the weights and progress of the checkpoint */
+	public NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, TrainingProgressListener listener) {
+		Preconditions.checkArgument(config.layerSize == layerSize, "Checkpoint has layer size %s, not %s", layerSize, config.layerSize);
+		Preconditions.checkArgument(config.useHierarchicalSoftmax == hasSyn1, "Checkpoint %s hierarchical softmax", hasSyn1 ? "uses" : "does not use");
+		Preconditions.checkArgument((config.negativeSamples > 0) == hasSyn1neg, "Checkpoint %s negative sampling", hasSyn1neg ? "uses" : "does not use");
+		Preconditions.checkArgument(config.iterations >= iteration, "Checkpoint is at iteration %s of more than %s", iteration, config.iterations);
+
+		NeuralNetworkTrainer trainer = config.createTrainer(huffmanCodes, listener);
+		try (DataInputStream in = openWeights()) {
+			readWeights(in, trainer.syn0);
+			if (hasSyn1)
+				readWeights(in, trainer.syn1);
+			if (hasSyn1neg)
+				readWeights(in, trainer.syn1neg);
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to read weights from %s: %s", file.getAbsolutePath(), e), e);
+		}
+		trainer.resume(this);
+		return trainer;
+	}
+	
+	/** 
+	 * Initialize the weights of a trainer with a different vocab from this checkpoint.
+	 * The rows of syn0 and syn1neg are copied for the words in both vocabs. syn1 is left alone,
+	 * since its rows belong to the inner nodes of the Huffman tree, which change with the vocab.
+	 * @return Number of words that were initialized
+	 */
+	public int warmStart(NeuralNetworkTrainer trainer) {
+		Preconditions.checkArgument(trainer.layer1_size == layerSize, "Checkpoint has layer size %s, not %s", layerSize, trainer.layer1_size);
+		int[] rows = new int[huffmanCodes.size()];
+		int initialized = 0;
+		for (int idx = 0; idx < rows.length; idx++) {
+			rows[idx] = trainer.huffmanCodes.id(huffmanCodes.token(idx));
+			if (rows[idx] >= 0)
+				initialized++;
+		}
+		
+		try (DataInputStream in = openWeights()) {
+			double[] row = new double[layerSize];
+			for (int r : rows) {
+				readRow(in, row);
+				if (r >= 0)
+					trainer.syn0.setRow(r, row);
+			}
+			if (hasSyn1)
+				skipFully(in, (long)rows.length * layerSize * 8);
+			if (hasSyn1neg && trainer.config.negativeSamples > 0) {
+				for (int r : rows) {
+					readRow(in, row);
+					if (r >= 0)
+						trainer.syn1neg.setRow(r, row);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to read weights from %s: %s", file.getAbsolutePath(), e), e);
+		}
+		return initialized;
+	}
+	
+	/** @return Stream positioned at the start of the weights */
+	private DataInputStream openWeights() throws IOException {
+		InputStream raw = new FileInputStream(file);
+		try {
+			skipFully(raw, weightsOffset);
+		} catch (IOException e) {
+			raw.close();
+			throw e;
+		}
+		return new DataInputStream(new BufferedInputStream(raw, BUFFER_SIZE));
+	}
+	
+	private static void skipFully(InputStream in, long n) throws IOException {
+		for (long skipped = 0; skipped < n; ) {
+			long s = in.skip(n - skipped);
+			if (s <= 0)
+				throw new EOFException("Checkpoint is truncated");
+			skipped += s;
+		}
+	}
+
+	/**
+	 * Write a checkpoint of the trainer to a temporary file, then move it over the given file
+	 * so that an existing checkpoint is only ever replaced by a complete one
+	 */
+	static void write(NeuralNetworkTrainer trainer, int iteration, long completedSentences, long completedWords, File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		boolean hasSyn1neg = trainer.config.negativeSamples > 0;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(trainer.layer1_size);
+			out.writeBoolean(trainer.syn1 != null);
+			out.writeBoolean(hasSyn1neg);
+			out.writeLong(trainer.numSentences);
+			out.writeInt(iteration);
+			out.writeLong(completedSentences);
+			out.writeLong(completedWords);
+			out.writeDouble(trainer.alpha);
+
+			HuffmanCodes huffmanCodes = trainer.huffmanCodes;
+			int vocabSize = huffmanCodes.size();
+			int[] offsets = huffmanCodes.offsets();
+			out.writeInt(vocabSize);
+			for (int idx = 0; idx < vocabSize; idx++) {
+				int offset = offsets[idx];
+				int codeLen = offsets[idx + 1] - offset;
+				out.writeUTF(huffmanCodes.token(idx));
+				out.writeLong(huffmanCodes.count(idx));
+				out.writeByte(codeLen);
+				out.write(huffmanCodes.codes(), offset, codeLen);
+				for (int i = 0; i < codeLen; i++)
+					out.writeInt(huffmanCodes.points()[offset + i]);
+				// The leaf itself, kept so that the format does not change
+				out.writeInt(idx - vocabSize);
+			}
+
+			writeWeights(out, trainer.syn0);
+			if (trainer.syn1 != null)
+				writeWeights(out, trainer.syn1);
+			if (hasSyn1neg)
+				writeWeights(out, trainer.syn1neg);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeWeights(DataOutputStream out, WeightMatrix matrix) throws IOException {
+		double[] row = new double[matrix.columns];
+		for (int r = 0; r < matrix.rows; r++) {
+			matrix.copyRow(r, row);
+			for (double value : row)
+				out.writeDouble(value);
+		}
+	}
+
+	private static void readWeights(DataInputStream in, WeightMatrix matrix) throws IOException {
+		double[] row = new double[matrix.columns];
+		for (int r = 0; r < matrix.rows; r++) {
+			readRow(in, row);
+			matrix.setRow(r, row);
+		}
+	}
+	
+	private static void readRow(DataInputStream in, double[] row) throws IOException {
+		for (int c = 0; c < row.length; c++)
+			row[c] = in.readDouble();
+	}
+}
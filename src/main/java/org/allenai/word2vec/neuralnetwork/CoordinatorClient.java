@@ -0,0 +1,177 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.primitives.Ints;
+import org.allenai.word2vec.util.AutoLog;
+import org.apache.commons.logging.Log;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection of a training process to a {@link TrainingCoordinator}, for training one model with
+ * several processes, each on its own shard of the corpus
+ * <p>
+ * The processes first agree on the vocab by summing their word counts, so that their weights start
+ * out the same. A fixed number of times per iteration, each process waits for its workers to finish
+ * the batches so far and sends the coordinator the rows of its weights that changed since the last
+ * sync, as deltas. The coordinator averages the deltas of all processes, counting a row a process
+ * did not change as zero, and each process adds the average to its weights as of the last sync.
+ * This keeps the weights identical across processes after every sync.
+ * <p>
+ * Only the rows written since the last sync are diffed, against copies taken on their first write,
+ * so a sync costs time and memory in proportion to the rows a process trained rather than to the
+ * whole vocab.
+ */
+public class CoordinatorClient implements Closeable {
+	private static final Log LOG = AutoLog.getLog();
+
+	/** Version of the messages exchanged with the coordinator */
+	static final int VERSION = 1;
+	/** Message with the deltas of a sync */
+	static final int SYNC = 1;
+	/** Message sent when a process is done training */
+	static final int DONE = 2;
+	/** Ends the rows of a matrix in a message */
+	static final int END_OF_ROWS = -1;
+
+	private final String address;
+	private final TTransport transport;
+	private final TProtocol protocol;
+	private int syncsPerIteration;
+
+	/** Weights of the trainer, which keep the rows written since the last sync as of that sync */
+	private final List<TrackedWeightMatrix> matrices = new ArrayList<>();
+
+	private CoordinatorClient(String host, int port) {
+		this.address = host + ":" + port;
+		this.transport = new TSocket(host, port);
+		this.protocol = new TBinaryProtocol(transport);
+	}
+
+	/** @return Client connected to the {@link TrainingCoordinator} listening on the given port */
+	public static CoordinatorClient connect(String host, int port) {
+		CoordinatorClient client = new CoordinatorClient(host, port);
+		try {
+			client.transport.open();
+		} catch (TException e) {
+			throw new IllegalStateException(String.format("Failed to connect to the coordinator at %s: %s", client.address, e), e);
+		}
+		return client;
+	}
+
+	/**
+	 * Send the word counts of the shard of this process to the coordinator
+	 * @return Word counts of the whole corpus
+	 */
+	public Multiset<String> exchangeVocab(Multiset<String> counts) {
+		try {
+			protocol.writeI32(VERSION);
+			protocol.writeI32(counts.elementSet().size());
+			for (Multiset.Entry<String> e : counts.entrySet()) {
+				protocol.writeString(e.getElement());
+				protocol.writeI64(e.getCount());
+			}
+			transport.flush();
+
+			int numWorkers = protocol.readI32();
+			this.syncsPerIteration = protocol.readI32();
+			int size = protocol.readI32();
+			Multiset<String> result = HashMultiset.create(size);
+			for (int i = 0; i < size; i++)
+				result.add(protocol.readString(), Ints.saturatedCast(protocol.readI64()));
+			LOG.info(String.format("Training with %s processes, syncing %s times per iteration", numWorkers, syncsPerIteration));
+			return result;
+		} catch (TException e) {
+			throw new IllegalStateException(String.format("Failed to exchange the vocab with the coordinator at %s: %s", address, e), e);
+		}
+	}
+
+	/** @return Number of syncs per iteration, set by the coordinator */
+	int syncsPerIteration() {
+		return syncsPerIteration;
+	}
+
+	/**
+	 * Sync the given weights of the trainer, taking their current values as the starting point of
+	 * the first sync. The trainer must use the returned view for all its updates.
+	 */
+	WeightMatrix track(WeightMatrix matrix) {
+		TrackedWeightMatrix tracked = new TrackedWeightMatrix(matrix);
+		matrices.add(tracked);
+		return tracked;
+	}
+
+	/**
+	 * Send the changes to the weights since the last sync to the coordinator and apply the
+	 * average of those of all processes. No worker may be training while this runs.
+	 */
+	void sync() {
+		int columns = matrices.get(0).columns;
+		double[] row = new double[columns];
+		try {
+			protocol.writeI32(SYNC);
+			protocol.writeI32(matrices.size());
+			protocol.writeI32(columns);
+			for (TrackedWeightMatrix matrix : matrices) {
+				for (int r : matrix.dirtyRows()) {
+					matrix.copyRow(r, row);
+					double[] base = matrix.base(r);
+					boolean changed = false;
+					for (int c = 0; c < columns; c++) {
+						row[c] -= base[c];
+						changed |= row[c] != 0;
+					}
+					if (changed)
+						writeRow(protocol, r, row);
+				}
+				protocol.writeI32(END_OF_ROWS);
+			}
+			transport.flush();
+
+			double[] delta = new double[columns];
+			for (TrackedWeightMatrix matrix : matrices) {
+				for (int r = protocol.readI32(); r != END_OF_ROWS; r = protocol.readI32()) {
+					readRow(protocol, delta);
+					double[] base = matrix.base(r);
+					for (int c = 0; c < columns; c++)
+						row[c] = base[c] + delta[c];
+					matrix.setUntracked(r, row);
+				}
+				matrix.reset();
+			}
+		} catch (TException e) {
+			throw new IllegalStateException(String.format("Failed to sync with the coordinator at %s: %s", address, e), e);
+		}
+	}
+
+	/** Tell the coordinator this process is done, and disconnect */
+	@Override public void close() {
+		try {
+			protocol.writeI32(DONE);
+			transport.flush();
+		} catch (TException e) {
+			LOG.warn(String.format("Failed to tell the coordinator at %s that training is done: %s", address, e), e);
+		} finally {
+			transport.close();
+		}
+	}
+
+	static void writeRow(TProtocol protocol, int r, double[] row) throws TException {
+		protocol.writeI32(r);
+		for (double value : row)
+			protocol.writeDouble(value);
+	}
+
+	static void readRow(TProtocol protocol, double[] row) throws TException {
+		for (int c = 0; c < row.length; c++)
+			row[c] = protocol.readDouble();
+	}
+}
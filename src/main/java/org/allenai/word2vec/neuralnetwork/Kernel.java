@@ -0,0 +1,52 @@
+package org.allenai.word2vec.neuralnetwork;
+
+/**
+ * Level 1 routines on the rows of the weights, in the arithmetic of the original implementation
+ * <p>
+ * Subclasses may use SIMD instructions, see {@link KernelType}. Only {@link #dot} may then
+ * round differently, since it sums in a different order.
+ */
+class Kernel {
+	/** Plain loops */
+	static final Kernel SCALAR = new Kernel();
+
+	/** @return Dot product of x and y[yOffset, yOffset + n) */
+	double dot(double[] x, double[] y, int yOffset, int n) {
+		double f = 0;
+		for (int c = 0; c < n; c++)
+			f += x[c] * y[yOffset + c];
+		return f;
+	}
+
+	/** @return Dot product of x and y[yOffset, yOffset + n) */
+	double dot(double[] x, float[] y, int yOffset, int n) {
+		double f = 0;
+		for (int c = 0; c < n; c++)
+			f += x[c] * y[yOffset + c];
+		return f;
+	}
+
+	/** y[yOffset, yOffset + n) += a * x[xOffset, xOffset + n) */
+	void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int n) {
+		for (int c = 0; c < n; c++)
+			y[yOffset + c] += a * x[xOffset + c];
+	}
+
+	/** y[yOffset, yOffset + n) += a * x[xOffset, xOffset + n) */
+	void axpy(double a, float[] x, int xOffset, double[] y, int yOffset, int n) {
+		for (int c = 0; c < n; c++)
+			y[yOffset + c] += a * x[xOffset + c];
+	}
+
+	/** y[yOffset, yOffset + n) += a * x[xOffset, xOffset + n) */
+	void axpy(double a, double[] x, int xOffset, float[] y, int yOffset, int n) {
+		for (int c = 0; c < n; c++)
+			y[yOffset + c] += a * x[xOffset + c];
+	}
+
+	/** x[0, n) /= d, e.g. to turn the sum of the context into the mean */
+	void divide(double[] x, double d, int n) {
+		for (int c = 0; c < n; c++)
+			x[c] /= d;
+	}
+}
@@ -0,0 +1,40 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import org.allenai.word2vec.util.AutoLog;
+import org.apache.commons.logging.Log;
+
+/**
+ * Supported implementations of the arithmetic on the weights
+ */
+public enum KernelType {
+	/** Plain loops, reproducing the results of the original implementation exactly */
+	SCALAR {
+		@Override Kernel create() {
+			return Kernel.SCALAR;
+		}
+	},
+	/**
+	 * SIMD instructions through the incubating Vector API, which requires running on JDK 16 or later
+	 * with --add-modules jdk.incubator.vector. Falls back to {@link #SCALAR} when it is not available.
+	 * <p>
+	 * Dot products sum in a different order, so results differ from {@link #SCALAR} in the last bits.
+	 */
+	VECTOR {
+		@Override Kernel create() {
+			try {
+				return Class.forName(VECTOR_KERNEL).asSubclass(Kernel.class).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				LOG.warn(String.format("Vector API is not available, falling back to %s: %s", SCALAR, e));
+				return Kernel.SCALAR;
+			}
+		}
+	},
+	;
+
+	private static final Log LOG = AutoLog.getLog();
+	/** Only compiled on JDK 16 or later, see build.sbt */
+	private static final String VECTOR_KERNEL = "org.allenai.word2vec.neuralnetwork.VectorApiKernel";
+
+	/** @return {@link Kernel} to use */
+	abstract Kernel create();
+}
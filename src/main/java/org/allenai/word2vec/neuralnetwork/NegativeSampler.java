@@ -0,0 +1,131 @@
+package org.allenai.word2vec.neuralnetwork;
+
+/**
+ * Draws negative samples from the unigram distribution raised to the 3/4rd power
+ */
+abstract class NegativeSampler {
+	/** Power applied to the word counts */
+	private static final double POWER = 0.75;
+
+	/**
+	 * @param random Freshly advanced random value of the calling worker
+	 * @return Vocab index of the sampled word
+	 */
+	abstract int sample(long random);
+
+	/**
+	 * Samples with the fixed size table of the C version, where each word fills a number of entries
+	 * proportional to its probability
+	 */
+	static class UnigramTableSampler extends NegativeSampler {
+		private static final int TABLE_SIZE = (int)1e8;
+
+		private final int vocabSize;
+		private final int[] table = new int[TABLE_SIZE];
+
+		/** @param counts Counts of the words, by vocab index */
+		UnigramTableSampler(long[] counts) {
+			this.vocabSize = counts.length;
+
+			long trainWordsPow = 0;
+			for (long count : counts) {
+				trainWordsPow += Math.pow(count, POWER);
+			}
+
+			double d1 = Math.pow(counts[0], POWER) / trainWordsPow;
+			int i = 0;
+			for (int a = 0; a < TABLE_SIZE; a++) {
+				table[a] = i;
+				if (a / (double)TABLE_SIZE > d1) {
+					i++;
+					// Past the end of the vocab, the last word fills the rest of the table
+					d1 += Math.pow(counts[Math.min(i, vocabSize - 1)], POWER) / trainWordsPow;
+				}
+			}
+		}
+
+		@Override int sample(long random) {
+			int target = table[(int) (((random >> 16) % TABLE_SIZE) + TABLE_SIZE) % TABLE_SIZE];
+			// Index 0 is the </s> token in the C version, which is never used as a negative sample
+			if (target == 0)
+				target = (int)(((random % (vocabSize - 1)) + vocabSize - 1) % (vocabSize - 1)) + 1;
+			return target;
+		}
+	}
+
+	/**
+	 * Samples with Walker's alias method, which takes O(vocab) memory and setup time
+	 * and samples each word with exactly its probability
+	 * <p>
+	 * The vocab is split into equally likely columns. Each column keeps its own word with
+	 * probability {@link #threshold} and otherwise yields its {@link #alias}.
+	 */
+	static class AliasSampler extends NegativeSampler {
+		private final int vocabSize;
+		/** Probability of keeping the word of each column, scaled to an unsigned 32-bit integer */
+		private final int[] threshold;
+		/** Word to yield when the word of the column is not kept */
+		private final int[] alias;
+
+		/** @param counts Counts of the words, by vocab index */
+		AliasSampler(long[] counts) {
+			this.vocabSize = counts.length;
+			this.threshold = new int[vocabSize];
+			this.alias = new int[vocabSize];
+
+			double total = 0;
+			for (long count : counts)
+				total += Math.pow(count, POWER);
+
+			// Vose's method: scale the probabilities so that the average is 1, then repeatedly
+			// top up a column below 1 with the excess of a column above 1
+			double[] scaled = new double[vocabSize];
+			int[] small = new int[vocabSize];
+			int[] large = new int[vocabSize];
+			int numSmall = 0;
+			int numLarge = 0;
+			for (int i = 0; i < vocabSize; i++) {
+				scaled[i] = Math.pow(counts[i], POWER) * vocabSize / total;
+				if (scaled[i] < 1)
+					small[numSmall++] = i;
+				else
+					large[numLarge++] = i;
+			}
+
+			while (numSmall > 0 && numLarge > 0) {
+				int s = small[--numSmall];
+				int l = large[--numLarge];
+				setColumn(s, scaled[s], l);
+				scaled[l] = (scaled[l] + scaled[s]) - 1;
+				if (scaled[l] < 1)
+					small[numSmall++] = l;
+				else
+					large[numLarge++] = l;
+			}
+			// Whatever is left is 1 up to rounding errors
+			while (numLarge > 0) {
+				int l = large[--numLarge];
+				setColumn(l, 1, l);
+			}
+			while (numSmall > 0) {
+				int s = small[--numSmall];
+				setColumn(s, 1, s);
+			}
+		}
+
+		private void setColumn(int column, double probability, int aliasIdx) {
+			threshold[column] = (int)Math.min((long)(probability * (1L << 32)), 0xFFFF_FFFFL);
+			alias[column] = aliasIdx;
+		}
+
+		@Override int sample(long random) {
+			// Mix the bits of the linear congruential generator, whose low bits are not very random
+			long z = (random ^ (random >>> 33)) * 0xFF51_AFD7_ED55_8CCDL;
+			z ^= z >>> 33;
+			int column = (int)(((z >>> 32) * vocabSize) >>> 32);
+			return Integer.compareUnsigned((int)z, threshold[column]) < 0
+					? column
+					: alias[column];
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.allenai.word2vec.neuralnetwork;
+
+/**
+ * Supported ways of drawing negative samples
+ */
+public enum NegativeSamplerType {
+	/** 
+	 * Alias table with exact probabilities, taking memory and setup time linear in the size of the vocab
+	 */
+	ALIAS {
+		@Override NegativeSampler create(long[] counts) {
+			return new NegativeSampler.AliasSampler(counts);
+		}
+	},
+	/** 
+	 * The 1e8 entry table of the C version, which takes 400MB and a few seconds to build.
+	 * Like the C version, samples of the most frequent word are replaced by a uniformly random word.
+	 */
+	UNIGRAM_TABLE {
+		@Override NegativeSampler create(long[] counts) {
+			return new NegativeSampler.UnigramTableSampler(counts);
+		}
+	},
+	;
+	
+	/** @return New {@link NegativeSampler} for the given counts of the words, by vocab index */
+	abstract NegativeSampler create(long[] counts);
+}
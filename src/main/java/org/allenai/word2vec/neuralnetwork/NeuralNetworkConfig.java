@@ -1,11 +1,11 @@
 package org.allenai.word2vec.neuralnetwork;
 
-import com.google.common.collect.ImmutableMultiset;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
-import org.allenai.word2vec.huffman.HuffmanCoding.HuffmanNode;
-import org.allenai.word2vec.huffman.HuffmanCoding;
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingStatsListener;
+import org.allenai.word2vec.huffman.HuffmanCodes;
 
-import java.util.Map;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 /** Fixed configuration for training the neural network */
 public class NeuralNetworkConfig {
@@ -20,6 +20,23 @@ public class NeuralNetworkConfig {
 	final double initialLearningRate;
 	final double downSampleRate;
 	
+	WeightStorage weightStorage = WeightStorage.DOUBLE_ARRAY;
+	File weightDirectory;
+	boolean padRows;
+	int hotRows;
+	int hotRowSyncInterval;
+	int sharedProcess;
+	int numSharedProcesses;
+	NegativeSamplerType negativeSamplerType = NegativeSamplerType.ALIAS;
+	KernelType kernelType = KernelType.SCALAR;
+	File checkpointFile;
+	long checkpointIntervalMillis;
+	TrainingStatsListener statsListener;
+	long statsIntervalMillis;
+	Subwords subwords;
+	int lossSampleInterval;
+	double minLossImprovement;
+	
 	/** Constructor */
 	public NeuralNetworkConfig(
 			NeuralNetworkType type,
@@ -42,13 +59,150 @@ public class NeuralNetworkConfig {
 		this.downSampleRate = downSampleRate;
 	}
 
+	/** 
+	 * Storage to use for the weight matrices
+	 * <p>
+	 * Defaults to {@link WeightStorage#DOUBLE_ARRAY}
+	 */
+	public NeuralNetworkConfig setWeightStorage(WeightStorage weightStorage) {
+		this.weightStorage = weightStorage;
+		return this;
+	}
+	
+	/** 
+	 * Pad the rows of the weights to whole cache lines, so that workers updating different rows
+	 * never write to the same cache line. This helps with many threads and small layer sizes,
+	 * at the cost of some memory. Only applies to weights on the heap.
+	 * <p>
+	 * Defaults to false
+	 */
+	public NeuralNetworkConfig setPadRows(boolean padRows) {
+		this.padRows = padRows;
+		return this;
+	}
+	
+	/** 
+	 * Have each worker keep private replicas of the hottest output rows: the syn1neg rows of the
+	 * most frequent words, and the syn1 rows of the inner nodes nearest the root of the Huffman tree.
+	 * Each worker merges its updates to the replicas into the shared weights, and picks up those of
+	 * the other workers, after training the given number of words, and once more when done.
+	 * <p>
+	 * Defaults to no replicas
+	 * @param hotRows Number of rows of each matrix to replicate
+	 * @param syncInterval Number of words each worker trains between merges
+	 */
+	public NeuralNetworkConfig setHotRowReplicas(int hotRows, int syncInterval) {
+		this.hotRows = hotRows;
+		this.hotRowSyncInterval = syncInterval;
+		return this;
+	}
+	
+	/** 
+	 * Train together with other processes on the same {@link WeightStorage#MAPPED} weights, each on
+	 * its own slice of the corpus, updating the weights without locks like the threads of a single
+	 * process do. All processes must use the same weight directory, vocab and configuration.
+	 * <p>
+	 * Process 0 initializes the weights while the others wait, the learning rate decays over the words
+	 * trained by all processes, and each process waits for all of them to be done before returning
+	 * the model. Files of a previous run that did not finish must be removed first.
+	 * @param process Index of this process, from 0
+	 */
+	public NeuralNetworkConfig setSharedWeights(int process, int numProcesses) {
+		this.sharedProcess = process;
+		this.numSharedProcesses = numProcesses;
+		return this;
+	}
+	
+	/** Directory holding the files of {@link WeightStorage#MAPPED} weights */
+	public NeuralNetworkConfig setWeightDirectory(File weightDirectory) {
+		this.weightDirectory = weightDirectory;
+		return this;
+	}
+	
+	/** 
+	 * How to draw negative samples
+	 * <p>
+	 * Defaults to {@link NegativeSamplerType#ALIAS}
+	 */
+	public NeuralNetworkConfig setNegativeSamplerType(NegativeSamplerType negativeSamplerType) {
+		this.negativeSamplerType = negativeSamplerType;
+		return this;
+	}
+	
+	/** 
+	 * Implementation of the arithmetic on the weights
+	 * <p>
+	 * Defaults to {@link KernelType#SCALAR}
+	 */
+	public NeuralNetworkConfig setKernelType(KernelType kernelType) {
+		this.kernelType = kernelType;
+		return this;
+	}
+	
+	/** 
+	 * Periodically write a {@link Checkpoint} to the given file while training, and once more when done.
+	 * Each checkpoint replaces the previous one.
+	 */
+	public NeuralNetworkConfig setCheckpoint(File checkpointFile, long interval, TimeUnit unit) {
+		this.checkpointFile = checkpointFile;
+		this.checkpointIntervalMillis = unit.toMillis(interval);
+		return this;
+	}
+	
+	/** 
+	 * Report {@link TrainingStats} to the given listener at a fixed rate while training, and once
+	 * more when done. The workers count into counters of their own, which are only summed for
+	 * each report.
+	 */
+	public NeuralNetworkConfig setStatsListener(TrainingStatsListener statsListener, long interval, TimeUnit unit) {
+		this.statsListener = statsListener;
+		this.statsIntervalMillis = unit.toMillis(interval);
+		return this;
+	}
+	
+	/** 
+	 * Train vectors for the character n-grams of the words along with the words, as in fastText.
+	 * The input vector of a word is the mean of its own row of syn0 and the vectors of the buckets
+	 * of its n-grams, and its gradient is added to each of them.
+	 * <p>
+	 * Defaults to null, for vectors of whole words only
+	 */
+	public NeuralNetworkConfig setSubwords(Subwords subwords) {
+		this.subwords = subwords;
+		return this;
+	}
+	
+	/** 
+	 * Estimate the loss of each iteration from one position in every sampleInterval that the workers
+	 * train, adding up the negative log-sigmoid of each output at those positions as a side effect of
+	 * computing the gradients. The estimate is logged after each iteration and reported in
+	 * {@link TrainingStats}.
+	 * <p>
+	 * Defaults to 0, for no estimate
+	 */
+	public NeuralNetworkConfig setLossSampleInterval(int sampleInterval) {
+		this.lossSampleInterval = sampleInterval;
+		return this;
+	}
+	
+	/** 
+	 * Stop training after an iteration that improves the estimated loss by less than the given share
+	 * of the loss of the previous iteration, see {@link #setLossSampleInterval}
+	 * <p>
+	 * Defaults to 0, for training all iterations
+	 */
+	public NeuralNetworkConfig setMinLossImprovement(double minLossImprovement) {
+		this.minLossImprovement = minLossImprovement;
+		return this;
+	}
+	
 	/** @return {@link NeuralNetworkTrainer} */
-	public NeuralNetworkTrainer createTrainer(ImmutableMultiset<String> vocab, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, TrainingProgressListener listener) {
-		return type.createTrainer(this, vocab, huffmanNodes, listener);
+	public NeuralNetworkTrainer createTrainer(HuffmanCodes huffmanCodes, TrainingProgressListener listener) {
+		return type.createTrainer(this, huffmanCodes, listener);
 	}
 	
 	@Override public String toString() {
-		return String.format("%s with %s threads, %s iterations[%s layer size, %s window, %s hierarchical softmax, %s negative samples, %s initial learning rate, %s down sample rate]",
+		return String.format("%s with %s threads, %s iterations[%s layer size, %s window, %s hierarchical softmax, %s %s negative samples, %s initial learning rate, %s down sample rate, %s weights%s, %s hot row replicas, %s kernel]",
 				type.name(),
 				numThreads,
 				iterations,
@@ -56,8 +210,13 @@ public class NeuralNetworkConfig {
 				windowSize,
 				useHierarchicalSoftmax ? "using" : "not using",
 				negativeSamples, 
+				negativeSamplerType,
 				initialLearningRate,
-				downSampleRate
+				downSampleRate,
+				weightStorage,
+				padRows ? " with padded rows" : "",
+				hotRows,
+				kernelType
 			);
 	}
 }
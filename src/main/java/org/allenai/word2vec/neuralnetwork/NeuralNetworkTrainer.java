@@ -1,31 +1,59 @@
 package org.allenai.word2vec.neuralnetwork;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Multiset;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
-import org.allenai.word2vec.huffman.HuffmanCoding.HuffmanNode;
+import org.allenai.word2vec.util.AutoLog;
 import org.allenai.word2vec.util.CallableVoid;
 import org.allenai.word2vec.Word2VecTrainerBuilder;
-import org.allenai.word2vec.huffman.HuffmanCoding;
+import org.allenai.word2vec.huffman.HuffmanCodes;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
 
+import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 /** Parent class for training word2vec's neural network */
 public abstract class NeuralNetworkTrainer {
+	private static final Log LOG = AutoLog.getLog();
+	
 	/** Sentences longer than this are broken into multiple chunks */
 	private static final int MAX_SENTENCE_LENGTH = 1_000;
 	
+	/** Maximum number of sentences handed to a worker at a time */
+	private static final int BATCH_SIZE = 1_000;
+	/** 
+	 * Batches are cut once they hold this many tokens, so that a few long sentences do not leave
+	 * one worker with much more work than the others at the end of an iteration
+	 */
+	private static final int BATCH_TOKENS = 10_000;
+	/** Number of batches that may be waiting in the queue per thread */
+	private static final int QUEUED_BATCHES_PER_THREAD = 4;
+	/** Marks the end of the batches for one iteration */
+	private static final Batch END_OF_INPUT = new Batch(-1, Collections.<List<String>>emptyList());
+	
 	/** Boundary for maximum exponent allowed */
 	static final int MAX_EXP = 6;
 	
@@ -41,19 +69,37 @@ public abstract class NeuralNetworkTrainer {
 		}
 	}
 	
-	private static final int TABLE_SIZE = (int)1e8;
-	
 	private final Word2VecTrainerBuilder.TrainingProgressListener listener;
 	
 	final NeuralNetworkConfig config;
-	final Map<String, HuffmanCoding.HuffmanNode> huffmanNodes;
+	final HuffmanCodes huffmanCodes;
 	private final int vocabSize;
 	final int layer1_size;
 	final int window;
 	/** 
 	 * In the C version, this includes the </s> token that replaces a newline character
 	 */
-	int numTrainedTokens;
+	long numTrainedTokens;
+	/** Number of sentences in the corpus */
+	long numSentences;
+	/** Share of the words of the corpus trained by this process, see {@link #synchronizeWith} */
+	private double shardFraction = 1;
+	/** Coordinator of the processes training this model, if any */
+	private CoordinatorClient coordinator;
+	/** Header shared with the other processes training the same weights, if any */
+	private final SharedProgress sharedProgress;
+	
+	/** Huffman codes of all the words, shared with {@link HuffmanCodes#codes()} */
+	final byte[] codes;
+	/** Inner node indices matching {@link #codes}, shared with {@link HuffmanCodes#points()} */
+	final int[] points;
+	/** Offsets into {@link #codes} and {@link #points} per word, shared with {@link HuffmanCodes#offsets()} */
+	final int[] codeOffsets;
+	/** 
+	 * Per word probability threshold for keeping an occurrence when down sampling, only
+	 * populated once the number of trained tokens is known
+	 */
+	double[] sampleThresholds;
 	
 	/* The following includes shared state that is updated per worker thread */
 	
@@ -62,83 +108,247 @@ public abstract class NeuralNetworkTrainer {
 	 * which have been processed so far.  It includes words that are discarded from sampling.
 	 * Note that each word is processed once per iteration.
 	 */
-	protected final AtomicInteger actualWordCount;
-	/** Learning rate, affects how fast values in the layers get updated */
+	protected final LongAdder actualWordCount;
+	/** Counters of the workers by thread, see {@link TrainingStats} */
+	private final ThreadCounters[] threadCounters;
+	/** Wall time of each completed iteration, in seconds */
+	private final List<Double> iterationSeconds = new CopyOnWriteArrayList<>();
+	/** Sum of the sampled loss terms of the workers in the current iteration, see {@link NeuralNetworkConfig#setLossSampleInterval} */
+	private final DoubleAdder iterationLoss = new DoubleAdder();
+	/** Number of terms in {@link #iterationLoss} */
+	private final LongAdder iterationLossTerms = new LongAdder();
+	/** Estimated loss of each completed iteration, per output */
+	private final List<Double> iterationLosses = new CopyOnWriteArrayList<>();
+	/** 
+	 * Learning rate, affects how fast values in the layers get updated. The workers train with
+	 * their own copy, see {@link Worker#alpha}.
+	 */
 	volatile double alpha;
+	/** Arithmetic on the weights */
+	final Kernel kernel;
 	/** 
 	 * This contains the outer layers of the neural network
-	 * First dimension is the vocab, second is the layer
+	 * Rows are the vocab, columns are the layer. The weights are only replaced by views of
+	 * themselves, in {@link #synchronizeWith}.
 	 */
-	final double[][] syn0;
-	/** This contains hidden layers of the neural network */
-	final double[][] syn1;
+	WeightMatrix syn0;
+	/** This contains hidden layers of the neural network, only allocated for hierarchical softmax */
+	WeightMatrix syn1;
 	/** This is used for negative sampling */
-	private final double[][] syn1neg;
-	/** Used for negative sampling */
-	private final int[] table;
+	WeightMatrix syn1neg;
+	/** Vectors of the buckets of character n-grams, only allocated for {@link NeuralNetworkConfig#subwords} */
+	WeightMatrix syn0subwords;
+	/** 
+	 * Buckets of the n-grams of all the words, back to back in the order of the vocab, found
+	 * between {@link #subwordOffsets}[i] and {@link #subwordOffsets}[i + 1] for word i
+	 */
+	private final int[] subwordBuckets;
+	private final int[] subwordOffsets;
+	/** Used for negative sampling, null if there are no negative samples */
+	final NegativeSampler negativeSampler;
 	long startNano;
 	
-	NeuralNetworkTrainer(NeuralNetworkConfig config, Multiset<String> vocab, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+	/** Iteration to start training from, counting down to 1 */
+	private int startIteration;
+	/** Number of sentences of the first iteration to skip, since they were trained before a checkpoint */
+	private long startSentence;
+	/** Sentences trained so far in the current iteration, as recorded in checkpoints */
+	private final IterationProgress progress = new IterationProgress();
+	
+	NeuralNetworkTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
 		this.config = config;
-		this.huffmanNodes = huffmanNodes;
+		this.huffmanCodes = huffmanCodes;
 		this.listener = listener;
-		this.vocabSize = huffmanNodes.size();
-		this.numTrainedTokens = vocab.size();
+		this.vocabSize = huffmanCodes.size();
+		for (long count : huffmanCodes.counts())
+			this.numTrainedTokens += count;
 		this.layer1_size = config.layerSize;
 		this.window = config.windowSize;
 		
-		this.actualWordCount = new AtomicInteger();
+		this.actualWordCount = new LongAdder();
+		this.threadCounters = new ThreadCounters[config.numThreads];
+		for (int i = 0; i < threadCounters.length; i++)
+			threadCounters[i] = new ThreadCounters();
 		this.alpha = config.initialLearningRate;
+		this.startIteration = config.iterations;
 		
-		this.syn0 = new double[vocabSize][layer1_size];
-		this.syn1 = new double[vocabSize][layer1_size];
-		this.syn1neg = new double[vocabSize][layer1_size];
-		this.table = new int[TABLE_SIZE];
+		this.kernel = config.kernelType.create();
+		// Processes other than 0 wait here for process 0 to initialize the shared weights
+		this.sharedProgress = config.numSharedProcesses > 0
+				? SharedProgress.open(config.weightDirectory, config.sharedProcess, config.numSharedProcesses, fingerprint())
+				: null;
+		this.syn0 = config.weightStorage.create(config, kernel, "syn0", vocabSize);
+		this.syn1 = config.useHierarchicalSoftmax
+				? config.weightStorage.create(config, kernel, "syn1", vocabSize)
+				: null;
+		this.syn1neg = config.weightStorage.create(config, kernel, "syn1neg", vocabSize);
+		this.syn0subwords = config.subwords != null
+				? config.weightStorage.create(config, kernel, "syn0subwords", config.subwords.numBuckets)
+				: null;
+		this.negativeSampler = config.negativeSamples > 0
+				? config.negativeSamplerType.create(huffmanCodes.counts())
+				: null;
 		
-		initializeSyn0();
-		initializeUnigramTable();
-	}
-	
-	private void initializeUnigramTable() {
-		long trainWordsPow = 0;
-		double power = 0.75;
+		this.codes = huffmanCodes.codes();
+		this.points = huffmanCodes.points();
+		this.codeOffsets = huffmanCodes.offsets();
 		
-		for (HuffmanCoding.HuffmanNode node : huffmanNodes.values()) {
-			trainWordsPow += Math.pow(node.count, power);
+		if (config.subwords != null) {
+			int[][] buckets = new int[vocabSize][];
+			for (int i = 0; i < vocabSize; i++)
+				buckets[i] = config.subwords.buckets(huffmanCodes.token(i));
+			this.subwordOffsets = new int[vocabSize + 1];
+			for (int i = 0; i < vocabSize; i++)
+				subwordOffsets[i + 1] = subwordOffsets[i] + buckets[i].length;
+			this.subwordBuckets = new int[subwordOffsets[vocabSize]];
+			for (int i = 0; i < vocabSize; i++)
+				System.arraycopy(buckets[i], 0, subwordBuckets, subwordOffsets[i], buckets[i].length);
+		} else {
+			this.subwordOffsets = null;
+			this.subwordBuckets = null;
 		}
 		
-		Iterator<HuffmanCoding.HuffmanNode> nodeIter = huffmanNodes.values().iterator();
-		HuffmanCoding.HuffmanNode last = nodeIter.next();
-		double d1 = Math.pow(last.count, power) / trainWordsPow;
-		int i = 0;
-		for (int a = 0; a < TABLE_SIZE; a++) {
-			table[a] = i;
-			if (a / (double)TABLE_SIZE > d1) {
-				i++;
-				HuffmanCoding.HuffmanNode next = nodeIter.hasNext()
-						? nodeIter.next()
-						: last;
-				
-				d1 += Math.pow(next.count, power) / trainWordsPow;
-				
-				last = next;
-			}
+		if (sharedProgress == null || sharedProgress.isLeader()) {
+			initializeSyn0();
+			if (syn0subwords != null)
+				initializeSubwords();
 		}
 	}
-
+	
+	/** @return Hash of the vocab and the shape of the weights, which processes sharing weights must agree on */
+	private long fingerprint() {
+		long hash = Objects.hash(config.layerSize, config.useHierarchicalSoftmax, config.negativeSamples > 0);
+		for (int i = 0; i < vocabSize; i++)
+			hash = 31 * hash + Objects.hash(huffmanCodes.token(i), i, huffmanCodes.count(i));
+		return hash;
+	}
+	
+	private void initializeSampleThresholds() {
+		sampleThresholds = new double[vocabSize];
+		if (config.downSampleRate <= 0)
+			return;
+		
+		for (int i = 0; i < vocabSize; i++) {
+			long count = huffmanCodes.count(i);
+			sampleThresholds[i] = (Math.sqrt(count / (config.downSampleRate * numTrainedTokens)) + 1)
+					* (config.downSampleRate * numTrainedTokens) / count;
+		}
+	}
+	
 	private void initializeSyn0() {
 		long nextRandom = 1;
-		for (int a = 0; a < huffmanNodes.size(); a++) {
+		for (int a = 0; a < vocabSize; a++) {
 			// Consume a random for fun
 			// Actually we do this to use up the injected </s> token
 			nextRandom = incrementRandom(nextRandom);
 			for (int b = 0; b < layer1_size; b++) {
 				nextRandom = incrementRandom(nextRandom);
-				syn0[a][b] = (((nextRandom & 0xFFFF) / (double)65_536) - 0.5) / layer1_size;
+				syn0.set(a, b, (((nextRandom & 0xFFFF) / (double)65_536) - 0.5) / layer1_size);
 			}
 		}
 	}
 	
+	/** 
+	 * Initialize the n-gram buckets with the same distribution as syn0. The generator of
+	 * {@link #initializeSyn0()} repeats its low bits too often for this many rows.
+	 */
+	private void initializeSubwords() {
+		Random random = new Random(1);
+		for (int a = 0; a < syn0subwords.rows; a++) {
+			for (int b = 0; b < layer1_size; b++)
+				syn0subwords.set(a, b, (random.nextDouble() - 0.5) / layer1_size);
+		}
+	}
+	
+	/** vec += input vector of the word, which is its row of syn0 unless there are subwords */
+	final void addInputTo(int word, double[] vec) {
+		if (syn0subwords == null) {
+			syn0.addRowTo(word, vec);
+			return;
+		}
+		int from = subwordOffsets[word];
+		int to = subwordOffsets[word + 1];
+		double scale = 1.0 / (1 + to - from);
+		syn0.addRowTo(word, scale, vec);
+		for (int i = from; i < to; i++)
+			syn0subwords.addRowTo(subwordBuckets[i], scale, vec);
+	}
+	
+	/** Copy the input vector of the word into vec */
+	final void copyInput(int word, double[] vec) {
+		if (syn0subwords == null) {
+			syn0.copyRow(word, vec);
+			return;
+		}
+		Arrays.fill(vec, 0);
+		addInputTo(word, vec);
+	}
+	
+	/** Add the gradient to the input vector of the word, i.e. to each of its parts if there are subwords */
+	final void addToInput(int word, double[] gradient) {
+		syn0.addToRow(word, gradient);
+		if (syn0subwords == null)
+			return;
+		for (int i = subwordOffsets[word]; i < subwordOffsets[word + 1]; i++)
+			syn0subwords.addToRow(subwordBuckets[i], gradient);
+	}
+	
+	/** 
+	 * Warm start the given word with an existing vector in place of its random initialization
+	 * @return Whether the word is in the vocab
+	 */
+	public boolean initializeVector(String word, double[] vector) {
+		int idx = huffmanCodes.id(word);
+		if (idx < 0)
+			return false;
+		Preconditions.checkArgument(vector.length == layer1_size, "Expected a vector of size %s, not %s", layer1_size, vector.length);
+		syn0.setRow(idx, vector);
+		return true;
+	}
+	
+	/** @return Size of the layers, i.e. of the vectors */
+	public int layerSize() {
+		return layer1_size;
+	}
+	
+	/**
+	 * Copy the current vector of the word with the given vocab index. This reads the weights
+	 * without locking while the workers may be updating them, so the vector can mix values from
+	 * before and after an update, much as the workers themselves see them.
+	 */
+	public void copyVector(int idx, double[] vector) {
+		Preconditions.checkArgument(vector.length == layer1_size, "Expected a vector of size %s, not %s", layer1_size, vector.length);
+		copyInput(idx, vector);
+	}
+
+	/** Continue from the progress of the given checkpoint, whose weights have been loaded already */
+	void resume(Checkpoint checkpoint) {
+		this.startIteration = checkpoint.iteration;
+		this.startSentence = checkpoint.completedSentences;
+		this.actualWordCount.reset();
+		this.actualWordCount.add(checkpoint.actualWordCount);
+		this.alpha = checkpoint.alpha;
+	}
+	
+	/** 
+	 * Train together with other processes through a {@link TrainingCoordinator}, each on its own
+	 * shard of the corpus. The vocab must be the one agreed with the coordinator, and the weights
+	 * must be fully initialized, since they are taken as the starting point of the first sync.
+	 * @param shardTokens Number of words in the vocab in the shard of this process, which the
+	 * learning rate is decayed over
+	 */
+	public void synchronizeWith(CoordinatorClient coordinator, long shardTokens) {
+		this.coordinator = coordinator;
+		this.shardFraction = shardTokens / (double)numTrainedTokens;
+		syn0 = coordinator.track(syn0);
+		if (syn1 != null)
+			syn1 = coordinator.track(syn1);
+		if (config.negativeSamples > 0)
+			syn1neg = coordinator.track(syn1neg);
+		if (syn0subwords != null)
+			syn0subwords = coordinator.track(syn0subwords);
+	}
+	
 	/** @return Next random value to use */
 	static long incrementRandom(long r) {
 		return r * 25_214_903_917L + 11;
@@ -148,42 +358,156 @@ public abstract class NeuralNetworkTrainer {
 	public interface NeuralNetworkModel {
 		/** Size of the layers */
 		int layerSize();
-		/** Resulting vectors */
-		double[][] vectors();
+		/** Resulting vectors, laid out as expected by {@link org.allenai.word2vec.Word2VecModel} */
+		DoubleBuffer[] vectors();
+		/** Vectors of the buckets of character n-grams laid out the same way, or null without {@link NeuralNetworkConfig#subwords} */
+		DoubleBuffer[] subwordVectors();
 	}
 	
-	/** @return Trained NN model */
+	/** 
+	 * Train on the given sentences, counting them first
+	 * @return Trained NN model
+	 */
 	public NeuralNetworkModel train(Iterable<List<String>> sentences) throws InterruptedException {
+		long numSentences = 0;
+		for (@SuppressWarnings("unused") List<String> sentence : sentences)
+			numSentences++;
+		return train(sentences, numSentences);
+	}
+	
+	/** 
+	 * Train on the given sentences
+	 * <p>
+	 * The sentences are iterated once per iteration and streamed to the workers in small batches
+	 * through a bounded queue, so memory use does not grow with the size of the corpus
+	 * @param numSentences Number of sentences in the corpus
+	 * @return Trained NN model
+	 */
+	public NeuralNetworkModel train(Iterable<List<String>> sentences, long numSentences) throws InterruptedException {
 		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.numThreads));
+		ScheduledExecutorService checkpoints = null;
+		ScheduledExecutorService stats = null;
+		StatsReporter statsReporter = null;
 		
-		int numSentences = Iterables.size(sentences);
+		this.numSentences = numSentences;
 		numTrainedTokens += numSentences;
-		
-		// Partition the sentences evenly amongst the threads
-		Iterable<List<List<String>>> partitioned = Iterables.partition(sentences, numSentences / config.numThreads + 1);
+		initializeSampleThresholds();
 		
 		try {
+			if (sharedProgress != null)
+				sharedProgress.start();
 			listener.update(Word2VecTrainerBuilder.TrainingProgressListener.Stage.TRAIN_NEURAL_NETWORK, 0.0);
-			for (int iter = config.iterations; iter > 0; iter--) {
-				List<CallableVoid> tasks = new ArrayList<>();
-				int i = 0;
-				for (final List<List<String>> batch : partitioned) {
-					tasks.add(createWorker(i, iter, batch));
-					i++;
+			progress.start(startIteration, startSentence, actualWordCount.sum());
+			if (config.checkpointFile != null) {
+				checkpoints = Executors.newSingleThreadScheduledExecutor(
+						new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-checkpoint-%d").build());
+				checkpoints.scheduleWithFixedDelay(new Runnable() {
+					@Override public void run() {
+						writeCheckpoint();
+					}
+				}, config.checkpointIntervalMillis, config.checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+			if (config.statsListener != null) {
+				statsReporter = new StatsReporter();
+				stats = Executors.newSingleThreadScheduledExecutor(
+						new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-stats-%d").build());
+				stats.scheduleAtFixedRate(statsReporter, config.statsIntervalMillis, config.statsIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+			
+			for (int iter = startIteration; iter > 0; iter--) {
+				long skip = iter == startIteration ? startSentence : 0;
+				progress.start(iter, skip, actualWordCount.sum());
+				
+				final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(config.numThreads * QUEUED_BATCHES_PER_THREAD);
+				List<ListenableFuture<?>> futures = new ArrayList<>(config.numThreads);
+				for (int i = 0; i < config.numThreads; i++) {
+					final int index = i;
+					final int workerIter = iter;
+					futures.add(ex.submit(new CallableVoid() {
+						@Override public void run() throws InterruptedException {
+							// Allocating the worker on its own thread keeps its counters and buffers
+							// off the cache lines of the other workers. Like the C version, each worker is
+							// seeded with the index of its thread.
+							createWorker(index, index, workerIter, batches).run();
+						}
+					}));
+				}
+				ListenableFuture<?> workers = Futures.allAsList(futures);
+				
+				long busyStart = busyNanos();
+				long iterationStart = System.nanoTime();
+				iterationLoss.reset();
+				iterationLossTerms.reset();
+				
+				int syncs = coordinator == null ? 0 : coordinator.syncsPerIteration();
+				int nextSync = 1;
+				List<List<String>> batch = new ArrayList<>(BATCH_SIZE);
+				int batchTokens = 0;
+				long position = 0;
+				long firstSentence = skip;
+				for (List<String> sentence : sentences) {
+					if (position++ < skip)
+						continue;
+					batch.add(sentence);
+					batchTokens += sentence.size();
+					boolean sync = nextSync < syncs && position >= syncPosition(nextSync, syncs);
+					if (batch.size() == BATCH_SIZE || batchTokens >= BATCH_TOKENS || sync) {
+						enqueue(batches, new Batch(firstSentence, batch), workers);
+						firstSentence = position;
+						batch = new ArrayList<>(BATCH_SIZE);
+						batchTokens = 0;
+					}
+					if (sync) {
+						progress.awaitCompleted(position, workers);
+						for (; nextSync < syncs && position >= syncPosition(nextSync, syncs); nextSync++)
+							coordinator.sync();
+					}
 				}
+				if (!batch.isEmpty())
+					enqueue(batches, new Batch(firstSentence, batch), workers);
+				for (int i = 0; i < config.numThreads; i++)
+					enqueue(batches, END_OF_INPUT, workers);
 				
-				List<ListenableFuture<?>> futures = new ArrayList<>(tasks.size());
-				for (CallableVoid task : tasks)
-					futures.add(ex.submit(task));
 				try {
-					Futures.allAsList(futures).get();
+					workers.get();
 				} catch (ExecutionException e) {
 					throw new IllegalStateException("Error training neural network", e.getCause());
 				}
+				// The last sync of the iteration waits for the workers to finish, including
+				// merging their replicas of the hot rows
+				for (; nextSync <= syncs; nextSync++)
+					coordinator.sync();
+				long elapsed = System.nanoTime() - iterationStart;
+				iterationSeconds.add(elapsed / 1e9);
+				logIdleTime(iter, elapsed, busyNanos() - busyStart);
+				boolean converged = config.lossSampleInterval > 0 && recordLoss(iter);
+				// Training stopped early counts as complete in checkpoints
+				progress.start(converged ? 0 : iter - 1, 0, actualWordCount.sum());
+				if (converged)
+					break;
 			}
 			ex.shutdown();
+			
+			if (checkpoints != null) {
+				checkpoints.shutdown();
+				checkpoints.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				writeCheckpoint();
+			}
+			if (stats != null) {
+				stats.shutdown();
+				stats.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				statsReporter.run();
+			}
+			if (sharedProgress != null)
+				sharedProgress.finish();
 		} finally {
 			ex.shutdownNow();
+			if (checkpoints != null)
+				checkpoints.shutdownNow();
+			if (stats != null)
+				stats.shutdownNow();
+			if (sharedProgress != null)
+				IOUtils.closeQuietly(sharedProgress);
 		}
 		
 		return new NeuralNetworkModel() {
@@ -191,14 +515,244 @@ public abstract class NeuralNetworkTrainer {
 				return config.layerSize;
 			}
 			
-			@Override public double[][] vectors() {
-				return syn0;
+			@Override public DoubleBuffer[] vectors() {
+				if (syn0subwords == null)
+					return syn0.toDoubleBuffers();
+				// The vectors of the words include their n-grams
+				WeightMatrix vectors = WeightMatrix.doubles(vocabSize, layer1_size, false, kernel);
+				double[] vector = new double[layer1_size];
+				for (int i = 0; i < vocabSize; i++) {
+					copyInput(i, vector);
+					vectors.setRow(i, vector);
+				}
+				return vectors.toDoubleBuffers();
+			}
+			
+			@Override public DoubleBuffer[] subwordVectors() {
+				return syn0subwords == null ? null : syn0subwords.toDoubleBuffers();
 			}
 		};
 	}
 	
-	/** @return {@link Worker} to process the given sentences */
-	abstract Worker createWorker(int randomSeed, int iter, Iterable<List<String>> batch);
+	/** @return Position in the corpus after which to do the given sync of an iteration */
+	private long syncPosition(int sync, int syncs) {
+		return (sync * numSentences + syncs - 1) / syncs;
+	}
+	
+	/** 
+	 * Write a checkpoint to {@link NeuralNetworkConfig#checkpointFile} while the workers keep training.
+	 * A failure is logged rather than thrown, since training itself is unaffected.
+	 */
+	private void writeCheckpoint() {
+		int iteration;
+		long completedSentences;
+		long completedWords;
+		synchronized (progress) {
+			iteration = progress.iteration;
+			completedSentences = progress.completedSentences;
+			completedWords = progress.completedWords;
+		}
+		try {
+			Checkpoint.write(this, iteration, completedSentences, completedWords, config.checkpointFile);
+		} catch (IOException e) {
+			LOG.warn(String.format("Failed to write checkpoint to %s: %s", config.checkpointFile.getAbsolutePath(), e), e);
+		}
+	}
+	
+	/** 
+	 * Blocks until there is room in the queue for the batch
+	 * @throws IllegalStateException If a worker failed, since the queue may then never drain
+	 */
+	private static void enqueue(BlockingQueue<Batch> batches, Batch batch, ListenableFuture<?> workers) throws InterruptedException {
+		while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS))
+			checkWorkers(workers);
+	}
+	
+	/** @throws IllegalStateException If the workers stopped, which they only do early when one failed */
+	private static void checkWorkers(ListenableFuture<?> workers) throws InterruptedException {
+		if (workers.isDone()) {
+			try {
+				workers.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Error training neural network", e.getCause());
+			}
+			throw new IllegalStateException("Workers stopped before consuming all sentences");
+		}
+	}
+	
+	/** Consecutive sentences of the corpus handed to a worker at once */
+	static final class Batch {
+		/** Position of the first sentence in the corpus */
+		final long firstSentence;
+		final List<List<String>> sentences;
+		/** Number of words in the vocab, set once the batch has been trained */
+		long words;
+		
+		Batch(long firstSentence, List<List<String>> sentences) {
+			this.firstSentence = firstSentence;
+			this.sentences = sentences;
+		}
+	}
+	
+	/** 
+	 * Tracks how many sentences at the start of the current iteration have been trained, along with
+	 * the matching {@link #actualWordCount}. Batches complete out of order, so a batch only counts once
+	 * all the batches before it are done.
+	 */
+	private static final class IterationProgress {
+		private int iteration;
+		private long completedSentences;
+		private long completedWords;
+		/** Completed batches that are not yet counted, by first sentence */
+		private final Map<Long, Batch> pending = new HashMap<>();
+		
+		synchronized void start(int iteration, long completedSentences, long completedWords) {
+			this.iteration = iteration;
+			this.completedSentences = completedSentences;
+			this.completedWords = completedWords;
+			pending.clear();
+		}
+		
+		synchronized void completed(Batch batch) {
+			pending.put(batch.firstSentence, batch);
+			for (Batch next = pending.remove(completedSentences); next != null; next = pending.remove(completedSentences)) {
+				completedSentences += next.sentences.size();
+				completedWords += next.words;
+			}
+			notifyAll();
+		}
+		
+		/** 
+		 * Blocks until the given number of sentences at the start of the iteration have been trained
+		 * @throws IllegalStateException If a worker failed
+		 */
+		synchronized void awaitCompleted(long sentences, ListenableFuture<?> workers) throws InterruptedException {
+			while (completedSentences < sentences) {
+				checkWorkers(workers);
+				wait(100);
+			}
+		}
+	}
+	
+	/** @return Time all the workers spent training batches so far, in nanoseconds */
+	private long busyNanos() {
+		long busy = 0;
+		for (ThreadCounters counters : threadCounters)
+			busy += counters.busyNanos;
+		return busy;
+	}
+	
+	/**
+	 * Log the share of the time the workers spent waiting rather than training during an iteration,
+	 * either for the next batch or at the end of the iteration for the other workers to finish
+	 */
+	private void logIdleTime(int iter, long elapsedNanos, long busyNanos) {
+		double available = (double)elapsedNanos * config.numThreads;
+		double idle = available > 0 ? Math.max(0, 1 - busyNanos / available) : 0;
+		LOG.info(String.format("Iteration %s of %s took %.1fs, workers were idle %.1f%% of the time",
+				config.iterations - iter + 1, config.iterations, elapsedNanos / 1e9, idle * 100));
+	}
+	
+	/** 
+	 * Log the estimated loss of an iteration and add it to {@link #iterationLosses}
+	 * @return Whether the loss improved by less than {@link NeuralNetworkConfig#minLossImprovement},
+	 * so that training should stop
+	 */
+	private boolean recordLoss(int iter) {
+		long terms = iterationLossTerms.sum();
+		if (terms == 0)
+			return false;
+		double loss = iterationLoss.sum() / terms;
+		Double previous = iterationLosses.isEmpty() ? null : iterationLosses.get(iterationLosses.size() - 1);
+		iterationLosses.add(loss);
+		LOG.info(String.format("Iteration %s of %s has an estimated loss of %.5f", config.iterations - iter + 1, config.iterations, loss));
+		
+		if (previous == null || config.minLossImprovement <= 0 || iter == 1)
+			return false;
+		double improvement = (previous - loss) / previous;
+		if (improvement >= config.minLossImprovement)
+			return false;
+		LOG.info(String.format("Stopping early with %s iterations left, since the loss improved by only %.2f%%",
+				iter - 1, improvement * 100));
+		return true;
+	}
+	
+	/** 
+	 * Counters of the workers on one thread, across iterations. Each worker counts in fields of its own
+	 * and only publishes them here every few thousand words, so the counters cost the workers next to
+	 * nothing, and they are only summed when {@link StatsReporter} reports.
+	 */
+	private static final class ThreadCounters {
+		/** Words of the vocab processed, including those dropped by down sampling */
+		volatile long words;
+		volatile long droppedWords;
+		volatile long sentences;
+		/** Time spent training batches, including the one in progress, in nanoseconds */
+		volatile long busyNanos;
+	}
+	
+	/** Reports {@link TrainingStats} to {@link NeuralNetworkConfig#statsListener} */
+	private final class StatsReporter implements Runnable {
+		private final long startNanos = System.nanoTime();
+		private long lastNanos = startNanos;
+		/** Values of {@link ThreadCounters#words} and {@link ThreadCounters#busyNanos} as of the last report */
+		private final long[] lastWords = new long[threadCounters.length];
+		private final long[] lastBusyNanos = new long[threadCounters.length];
+		
+		@Override public void run() {
+			long now = System.nanoTime();
+			long interval = now - lastNanos;
+			double[] wordsPerSecond = new double[threadCounters.length];
+			double[] idle = new double[threadCounters.length];
+			long words = 0;
+			long droppedWords = 0;
+			long sentences = 0;
+			for (int i = 0; i < threadCounters.length; i++) {
+				ThreadCounters counters = threadCounters[i];
+				long threadWords = counters.words;
+				long busy = counters.busyNanos;
+				words += threadWords;
+				droppedWords += counters.droppedWords;
+				sentences += counters.sentences;
+				if (interval > 0) {
+					wordsPerSecond[i] = (threadWords - lastWords[i]) / (interval / 1e9);
+					idle[i] = Math.max(0, 1 - (busy - lastBusyNanos[i]) / (double)interval);
+				}
+				lastWords[i] = threadWords;
+				lastBusyNanos[i] = busy;
+			}
+			lastNanos = now;
+			
+			int iteration;
+			synchronized (progress) {
+				iteration = progress.iteration;
+			}
+			try {
+				config.statsListener.update(new TrainingStats(
+						(now - startNanos) / 1e9,
+						interval / 1e9,
+						Math.min(config.iterations - iteration + 1, config.iterations),
+						config.iterations,
+						alpha,
+						words,
+						droppedWords,
+						sentences,
+						wordsPerSecond,
+						idle,
+						iterationSeconds,
+						iterationLosses));
+			} catch (RuntimeException e) {
+				// Thrown out of a scheduled task, this would cancel all further reports
+				LOG.warn(String.format("Stats listener failed: %s", e), e);
+			}
+		}
+	}
+	
+	/** 
+	 * @param index Index of the thread of the worker, from 0 to {@link NeuralNetworkConfig#numThreads}
+	 * @return {@link Worker} to process the batches of sentences from the queue until {@link #END_OF_INPUT}
+	 */
+	abstract Worker createWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches);
 	
 	/** Worker thread that updates the neural network model */
 	abstract class Worker extends CallableVoid {
@@ -206,63 +760,163 @@ public abstract class NeuralNetworkTrainer {
 		
 		long nextRandom;
 		final int iter;
-		final Iterable<List<String>> batch;
+		final BlockingQueue<Batch> batches;
 		
 		/** 
 		 * The number of words observed in the training data for this worker that exist
 		 * in the vocabulary.  It includes words that are discarded from sampling.
 		 */
-		int wordCount;
+		long wordCount;
 		/** Value of wordCount the last time alpha was updated */
-		int lastWordCount;
+		long lastWordCount;
+		/** Value of wordCount the last time the hot rows were synced */
+		long lastSyncWordCount;
+		/** Counters of the thread of this worker, which it adds its own to */
+		private final ThreadCounters counters;
+		/** Value of {@link ThreadCounters#words} when this worker started */
+		private final long startWords;
+		/** Words dropped by down sampling on this thread, see {@link ThreadCounters} */
+		private long droppedWords;
+		/** Sentences processed on this thread */
+		private long sentences;
+		/** Time spent training batches on this thread, excluding the one in progress */
+		private long busyNanos;
+		/** Start of the batch in progress */
+		private long batchStartNanos;
+		/** Positions left until the next one whose loss is sampled */
+		private int positionsUntilLossSample;
+		/** Whether the loss of the current position is sampled, see {@link #nextPosition()} */
+		boolean sampleLoss;
+		/** Sum of the sampled loss terms of this worker */
+		private double lossSum;
+		/** Number of terms in {@link #lossSum} */
+		private long lossTerms;
+		/** 
+		 * Learning rate of this worker, synced with {@link NeuralNetworkTrainer#alpha} when it is
+		 * updated rather than read from the shared field for every word
+		 */
+		double alpha = NeuralNetworkTrainer.this.alpha;
 		
 		final double[] neu1 = new double[layer1_size];
 		final double[] neu1e = new double[layer1_size];
 		
-		Worker(int randomSeed, int iter, Iterable<List<String>> batch) {
+		/** Vocab indices of the sentence being trained, reused across sentences */
+		private int[] sentence = new int[MAX_SENTENCE_LENGTH];
+		
+		/** Replicas of the hot rows of this worker, see {@link NeuralNetworkConfig#setHotRowReplicas} */
+		private final List<ReplicatedWeightMatrix> replicas = new ArrayList<>();
+		/** syn1 as seen by this worker, which may replicate the inner nodes near the root of the Huffman tree */
+		final WeightMatrix syn1;
+		/** syn1neg as seen by this worker, which may replicate the rows of the most frequent words */
+		final WeightMatrix syn1neg;
+		
+		Worker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
 			this.nextRandom = randomSeed;
 			this.iter = iter;
-			this.batch = batch;
+			this.batches = batches;
+			this.counters = threadCounters[index];
+			this.startWords = counters.words;
+			this.droppedWords = counters.droppedWords;
+			this.sentences = counters.sentences;
+			this.busyNanos = counters.busyNanos;
+			
+			WeightMatrix syn1 = NeuralNetworkTrainer.this.syn1;
+			// The root of the Huffman tree is the last inner node, in the second to last row
+			this.syn1 = syn1 == null
+					? null
+					: replicate(syn1, Math.max(0, vocabSize - 1 - config.hotRows), vocabSize - 1);
+			// The vocab is sorted by frequency descending
+			this.syn1neg = config.negativeSamples > 0
+					? replicate(NeuralNetworkTrainer.this.syn1neg, 0, Math.min(config.hotRows, vocabSize))
+					: NeuralNetworkTrainer.this.syn1neg;
+		}
+		
+		/** @return View of the matrix replicating rows [from, to) for this worker, or the matrix itself if there are none */
+		private WeightMatrix replicate(WeightMatrix matrix, int from, int to) {
+			if (from >= to)
+				return matrix;
+			ReplicatedWeightMatrix replica = new ReplicatedWeightMatrix(matrix, from, to - from, kernel);
+			replicas.add(replica);
+			return replica;
+		}
+		
+		/** Merge the updates to the replicas of the hot rows into the shared weights */
+		private void syncHotRows() {
+			for (ReplicatedWeightMatrix replica : replicas)
+				replica.sync();
+			lastSyncWordCount = wordCount;
 		}
 		
 		@Override public void run() throws InterruptedException {
-			for (List<String> sentence : batch) {
-				List<String> filteredSentence = new ArrayList<>(sentence.size());
-				for (String s : sentence) {
-					if (!huffmanNodes.containsKey(s))
-						continue;
-							
-					wordCount++;
-					if (config.downSampleRate > 0) {
-						HuffmanCoding.HuffmanNode huffmanNode = huffmanNodes.get(s);
-						double random = (Math.sqrt(huffmanNode.count / (config.downSampleRate * numTrainedTokens)) + 1)
-								* (config.downSampleRate * numTrainedTokens) / huffmanNode.count;
-						nextRandom = incrementRandom(nextRandom);
-						if (random < (nextRandom & 0xFFFF) / (double)65_536) {
-							continue;
-						}
-					}
-					
-					filteredSentence.add(s);
-				}
+			for (Batch batch = batches.take(); batch != END_OF_INPUT; batch = batches.take()) {
+				batchStartNanos = System.nanoTime();
+				long start = wordCount;
+				train(batch.sentences);
+				batch.words = wordCount - start;
+				progress.completed(batch);
+				busyNanos += System.nanoTime() - batchStartNanos;
+				publishCounters(0);
+			}
+			
+			syncHotRows();
+			iterationLoss.add(lossSum);
+			iterationLossTerms.add(lossTerms);
+			actualWordCount.add(wordCount - lastWordCount);
+			if (sharedProgress != null)
+				sharedProgress.addWords(wordCount - lastWordCount);
+		}
+		
+		private void train(List<List<String>> batch) throws InterruptedException {
+			for (List<String> raw : batch) {
+				int length = encode(raw);
+				sentences++;
 				
 				// Increment word count one extra for the injected </s> token
 				// Turns out if you don't do this, the produced word vectors aren't as tasty
 				wordCount++;
 				
-				Iterable<List<String>> partitioned = Iterables.partition(filteredSentence, MAX_SENTENCE_LENGTH);
-				for (List<String> chunked : partitioned) {
+				for (int start = 0; start < length; start += MAX_SENTENCE_LENGTH) {
 					if (Thread.currentThread().isInterrupted())
 						throw new InterruptedException("Interrupted while training word2vec model");
 					
 					if (wordCount - lastWordCount > LEARNING_RATE_UPDATE_FREQUENCY) {
 						updateAlpha(iter);
 					}
-					trainSentence(chunked);
+					if (!replicas.isEmpty() && wordCount - lastSyncWordCount > config.hotRowSyncInterval) {
+						syncHotRows();
+					}
+					trainSentence(sentence, start, Math.min(start + MAX_SENTENCE_LENGTH, length));
 				}
 			}
+		}
+		
+		/** 
+		 * Replaces the contents of {@link #sentence} with the vocab indices of the given tokens,
+		 * dropping those that are not in the vocab or are removed by down sampling
+		 * @return Number of indices written
+		 */
+		private int encode(List<String> raw) {
+			if (sentence.length < raw.size())
+				sentence = new int[Math.max(raw.size(), sentence.length * 2)];
 			
-			actualWordCount.addAndGet(wordCount - lastWordCount);
+			int length = 0;
+			for (String s : raw) {
+				int idx = huffmanCodes.id(s);
+				if (idx < 0)
+					continue;
+				
+				wordCount++;
+				if (config.downSampleRate > 0) {
+					nextRandom = incrementRandom(nextRandom);
+					if (sampleThresholds[idx] < (nextRandom & 0xFFFF) / (double)65_536) {
+						droppedWords++;
+						continue;
+					}
+				}
+				
+				sentence[length++] = idx;
+			}
+			return length;
 		}
 		
 		/** 
@@ -270,41 +924,83 @@ public abstract class NeuralNetworkTrainer {
 		 * @param iter Only used for debugging
 		 */
 		private void updateAlpha(int iter) {
-			int currentActual = actualWordCount.addAndGet(wordCount - lastWordCount);
+			actualWordCount.add(wordCount - lastWordCount);
+			long currentActual = sharedProgress == null
+					? actualWordCount.sum()
+					: sharedProgress.addWords(wordCount - lastWordCount);
 			lastWordCount = wordCount;
 			
 			// Degrade the learning rate linearly towards 0 but keep a minimum
 			alpha = config.initialLearningRate * Math.max(
-					1 - currentActual / (double)(config.iterations * numTrainedTokens),
+					1 - currentActual / (config.iterations * numTrainedTokens * shardFraction),
 					0.0001
 				);
+			NeuralNetworkTrainer.this.alpha = alpha;
+			publishCounters(System.nanoTime() - batchStartNanos);
 			
 			listener.update(
 					Word2VecTrainerBuilder.TrainingProgressListener.Stage.TRAIN_NEURAL_NETWORK,
-					currentActual / (double) (config.iterations * numTrainedTokens + 1)
+					currentActual / ((config.iterations * numTrainedTokens + 1) * shardFraction)
 				);
 		}
 		
-		void handleNegativeSampling(HuffmanCoding.HuffmanNode huffmanNode) {
+		/** 
+		 * Publish the counters of this worker to those of its thread
+		 * @param batchNanos Time spent so far on the batch in progress, if any
+		 */
+		private void publishCounters(long batchNanos) {
+			counters.words = startWords + wordCount;
+			counters.droppedWords = droppedWords;
+			counters.sentences = sentences;
+			counters.busyNanos = busyNanos + batchNanos;
+		}
+		
+		/** 
+		 * Called by the trainers before training each position, to set {@link #sampleLoss} for one in
+		 * every {@link NeuralNetworkConfig#lossSampleInterval} positions
+		 */
+		final void nextPosition() {
+			if (config.lossSampleInterval == 0)
+				return;
+			sampleLoss = --positionsUntilLossSample <= 0;
+			if (sampleLoss)
+				positionsUntilLossSample = config.lossSampleInterval;
+		}
+		
+		/** 
+		 * Add the loss of an output to the estimate, i.e. -log(sigmoid(f)) if the label is 1
+		 * and -log(1 - sigmoid(f)) = -log(sigmoid(-f)) if it is 0
+		 * @param f Dot product of the hidden layer and the output row
+		 */
+		final void addLoss(double f, int label) {
+			double x = label == 1 ? f : -f;
+			// log(1 + e^-x), computed without overflow for either sign of x
+			lossSum += x > 0 ? Math.log1p(Math.exp(-x)) : Math.log1p(Math.exp(x)) - x;
+			lossTerms++;
+		}
+		
+		/** 
+		 * Update {@link #syn1neg} for the word and the negative samples, adding the error to {@link #neu1e}
+		 * @param l1 Hidden layer, i.e. the input vector
+		 */
+		void handleNegativeSampling(int word, double[] l1) {
 			for (int d = 0; d <= config.negativeSamples; d++) {
 				int target;
 				final int label;
 				if (d == 0) {
-					target = huffmanNode.idx;
+					target = word;
 					label = 1;
 				} else {
 					nextRandom = incrementRandom(nextRandom);
-					target = table[(int) (((nextRandom >> 16) % TABLE_SIZE) + TABLE_SIZE) % TABLE_SIZE];
-					if (target == 0)
-						target = (int)(((nextRandom % (vocabSize - 1)) + vocabSize - 1) % (vocabSize - 1)) + 1;
-					if (target == huffmanNode.idx)
+					target = negativeSampler.sample(nextRandom);
+					if (target == word)
 						continue;
 					label = 0;
 				}
 				int l2 = target;
-				double f = 0;
-				for (int c = 0; c < layer1_size; c++)
-					f += neu1[c] * syn1neg[l2][c];
+				double f = syn1neg.dot(l2, l1);
+				if (sampleLoss)
+					addLoss(f, label);
 				final double g;
 				if (f > MAX_EXP)
 					g = (label - 1) * alpha;
@@ -312,14 +1008,12 @@ public abstract class NeuralNetworkTrainer {
 					g = (label - 0) * alpha;
 				else
 					g = (label - EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
-				for (int c = 0; c < layer1_size; c++)
-					neu1e[c] += g * syn1neg[l2][c];
-				for (int c = 0; c < layer1_size; c++)
-					syn1neg[l2][c] += g * neu1[c];
+				syn1neg.addRowTo(l2, g, neu1e);
+				syn1neg.addToRow(l2, g, l1);
 			}
 		}
 		
-		/** Update the model with the given raw sentence */
-		abstract void trainSentence(List<String> unfiltered);
+		/** Update the model with the vocab indices of the sentence between start (inclusive) and end (exclusive) */
+		abstract void trainSentence(int[] sentence, int start, int end);
 	}
 }
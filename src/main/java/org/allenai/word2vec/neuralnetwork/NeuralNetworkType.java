@@ -1,12 +1,9 @@
 package org.allenai.word2vec.neuralnetwork;
 
-import com.google.common.collect.Multiset;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
-import org.allenai.word2vec.huffman.HuffmanCoding.HuffmanNode;
 import org.allenai.word2vec.Word2VecTrainerBuilder;
-import org.allenai.word2vec.huffman.HuffmanCoding;
+import org.allenai.word2vec.huffman.HuffmanCodes;
 
-import java.util.Map;
 
 /** 
  * Supported types for the neural network
@@ -14,8 +11,8 @@ import java.util.Map;
 public enum NeuralNetworkType {
 	/** Faster, slightly better accuracy for frequent words */
 	CBOW {
-		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-			return new CBOWModelTrainer(config, counts, huffmanNodes, listener);
+		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+			return new CBOWModelTrainer(config, huffmanCodes, listener);
 		}
 		
 		@Override public double getDefaultInitialLearningRate() {
@@ -24,8 +21,22 @@ public enum NeuralNetworkType {
 	},
 	/** Slower, better for infrequent words */
 	SKIP_GRAM {
-		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-			return new SkipGramModelTrainer(config, counts, huffmanNodes, listener);
+		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+			return new SkipGramModelTrainer(config, huffmanCodes, listener);
+		}
+		
+		@Override public double getDefaultInitialLearningRate() {
+			return 0.025;
+		}
+	},
+	/** 
+	 * {@link #SKIP_GRAM} with negative sampling, sharing the negative samples across each window
+	 * so the updates are done as small matrix multiplies. Faster with many threads, but requires
+	 * negative samples and does not support hierarchical softmax.
+	 */
+	SKIP_GRAM_MINIBATCH {
+		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+			return new SkipGramMinibatchModelTrainer(config, huffmanCodes, listener);
 		}
 		
 		@Override public double getDefaultInitialLearningRate() {
@@ -38,5 +49,5 @@ public enum NeuralNetworkType {
 	public abstract double getDefaultInitialLearningRate();
 	
 	/** @return New {@link NeuralNetworkTrainer} */
-	abstract NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener);
+	abstract NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener);
 }
\ No newline at end of file
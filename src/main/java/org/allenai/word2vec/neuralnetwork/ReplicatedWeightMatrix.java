@@ -0,0 +1,122 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * View of a shared {@link WeightMatrix} for a single worker, which keeps private replicas of a
+ * range of hot rows, e.g. the syn1neg rows of the most frequent words
+ * <p>
+ * Reads and updates of the hot rows only touch the replicas, so workers do not contend for them.
+ * {@link #sync()} adds the updates made since the previous sync to the shared matrix, which
+ * combines them with those of the other workers, then refreshes the replicas. All other rows
+ * are read and updated in the shared matrix directly.
+ */
+class ReplicatedWeightMatrix extends WeightMatrix {
+	private final WeightMatrix shared;
+	private final Kernel kernel;
+	private final int firstRow;
+	private final int numRows;
+	/** Replicas of the hot rows, back to back */
+	private final double[] replicas;
+	/** Values of the hot rows in the shared matrix as of the last sync */
+	private final double[] base;
+	private final double[] buffer;
+
+	/** Replicate rows [firstRow, firstRow + numRows) of the shared matrix */
+	ReplicatedWeightMatrix(WeightMatrix shared, int firstRow, int numRows, Kernel kernel) {
+		super(shared.rows, shared.columns, shared.stride);
+		this.shared = shared;
+		this.kernel = kernel;
+		this.firstRow = firstRow;
+		this.numRows = numRows;
+		this.replicas = new double[numRows * columns];
+		this.base = new double[numRows * columns];
+		this.buffer = new double[columns];
+		refresh();
+	}
+
+	/** Add the updates to the replicas since the last sync to the shared matrix, then refresh the replicas */
+	void sync() {
+		for (int i = 0; i < numRows; i++) {
+			int offset = i * columns;
+			for (int c = 0; c < columns; c++)
+				buffer[c] = replicas[offset + c] - base[offset + c];
+			shared.addToRow(firstRow + i, buffer);
+		}
+		refresh();
+	}
+
+	/** Copy the hot rows of the shared matrix into {@link #replicas} and {@link #base} */
+	private void refresh() {
+		for (int i = 0; i < numRows; i++) {
+			shared.copyRow(firstRow + i, buffer);
+			System.arraycopy(buffer, 0, replicas, i * columns, columns);
+			System.arraycopy(buffer, 0, base, i * columns, columns);
+		}
+	}
+
+	/** @return Offset of the row in {@link #replicas}, or -1 if it is not replicated */
+	private int offset(int row) {
+		int i = row - firstRow;
+		return i >= 0 && i < numRows ? i * columns : -1;
+	}
+
+	@Override void set(int row, int column, double value) {
+		shared.set(row, column, value);
+		int offset = offset(row);
+		if (offset >= 0) {
+			replicas[offset + column] = value;
+			base[offset + column] = value;
+		}
+	}
+
+	@Override double dot(int row, double[] vec) {
+		int offset = offset(row);
+		return offset < 0 ? shared.dot(row, vec) : kernel.dot(vec, replicas, offset, columns);
+	}
+
+	@Override void addRowTo(int row, double g, double[] vec) {
+		int offset = offset(row);
+		if (offset < 0)
+			shared.addRowTo(row, g, vec);
+		else
+			kernel.axpy(g, replicas, offset, vec, 0, columns);
+	}
+
+	@Override void addRowTo(int row, double[] vec) {
+		int offset = offset(row);
+		if (offset < 0)
+			shared.addRowTo(row, vec);
+		else
+			kernel.axpy(1, replicas, offset, vec, 0, columns);
+	}
+
+	@Override void addToRow(int row, double g, double[] vec) {
+		int offset = offset(row);
+		if (offset < 0)
+			shared.addToRow(row, g, vec);
+		else
+			kernel.axpy(g, vec, 0, replicas, offset, columns);
+	}
+
+	@Override void addToRow(int row, double[] vec) {
+		int offset = offset(row);
+		if (offset < 0)
+			shared.addToRow(row, vec);
+		else
+			kernel.axpy(1, vec, 0, replicas, offset, columns);
+	}
+
+	@Override void copyRow(int row, double[] vec) {
+		int offset = offset(row);
+		if (offset < 0)
+			shared.copyRow(row, vec);
+		else
+			System.arraycopy(replicas, offset, vec, 0, columns);
+	}
+
+	/** @return Rows of the shared matrix, which lack any updates to the replicas that have not been synced */
+	@Override DoubleBuffer[] toDoubleBuffers() {
+		return shared.toDoubleBuffers();
+	}
+}
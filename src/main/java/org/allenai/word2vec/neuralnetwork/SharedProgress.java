@@ -0,0 +1,195 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Header in the weight directory shared by the processes training the same {@link WeightStorage#MAPPED}
+ * weights, see {@link NeuralNetworkConfig#setSharedWeights}
+ * <p>
+ * The first process creates and initializes the weight files, then marks the header ready, upon
+ * which the other processes map the files as they are. The header also counts the words trained by
+ * all the processes, which the learning rate decays over, and the processes that have started and
+ * that are done.
+ * It is only updated under a {@link FileLock}, every few thousand words.
+ */
+class SharedProgress implements Closeable {
+	private static final String FILE_NAME = "progress";
+	private static final int MAGIC = 0x77327670;
+	private static final int SIZE = 32;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int READY_OFFSET = 4;
+	private static final int FINGERPRINT_OFFSET = 8;
+	private static final int FINISHED_OFFSET = 16;
+	private static final int STARTED_OFFSET = 20;
+	private static final int WORDS_OFFSET = 24;
+	private static final long POLL_MILLIS = 100;
+
+	private final File file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final boolean leader;
+	private final int numProcesses;
+
+	private SharedProgress(File file, FileChannel channel, boolean leader, int numProcesses) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+		this.leader = leader;
+		this.numProcesses = numProcesses;
+	}
+
+	/**
+	 * Create the header if this is process 0, otherwise wait for process 0 to mark it ready
+	 * @param fingerprint Of the vocab and configuration, which must match across processes
+	 */
+	static SharedProgress open(File directory, int process, int numProcesses, long fingerprint) {
+		File file = new File(directory, FILE_NAME);
+		try {
+			return process == 0 ? create(file, numProcesses, fingerprint) : attach(file, numProcesses, fingerprint);
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to open %s: %s", file.getAbsolutePath(), e), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(String.format("Interrupted while waiting for process 0 to initialize %s", directory.getAbsolutePath()), e);
+		}
+	}
+
+	private static SharedProgress create(File file, int numProcesses, long fingerprint) throws IOException {
+		SharedProgress progress = new SharedProgress(
+				file,
+				FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+				true,
+				numProcesses);
+		synchronized (SharedProgress.class) {
+			try (FileLock lock = progress.lock()) {
+				progress.header.putInt(READY_OFFSET, 0);
+				progress.header.putLong(FINGERPRINT_OFFSET, fingerprint);
+				progress.header.putInt(FINISHED_OFFSET, 0);
+				progress.header.putInt(STARTED_OFFSET, 0);
+				progress.header.putLong(WORDS_OFFSET, 0);
+				progress.header.putInt(MAGIC_OFFSET, MAGIC);
+			}
+		}
+		return progress;
+	}
+
+	private static SharedProgress attach(File file, int numProcesses, long fingerprint) throws IOException, InterruptedException {
+		while (true) {
+			if (file.length() >= SIZE) {
+				SharedProgress progress = new SharedProgress(
+						file,
+						FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE),
+						false,
+						numProcesses);
+				boolean ready;
+				long leaderFingerprint;
+				synchronized (SharedProgress.class) {
+					try (FileLock lock = progress.lock()) {
+						// A header whose processes are all done is left over from a previous run
+						ready = progress.header.getInt(MAGIC_OFFSET) == MAGIC
+								&& progress.header.getInt(READY_OFFSET) != 0
+								&& progress.header.getInt(FINISHED_OFFSET) < numProcesses;
+						leaderFingerprint = progress.header.getLong(FINGERPRINT_OFFSET);
+					}
+				}
+				if (ready && leaderFingerprint == fingerprint)
+					return progress;
+				progress.close();
+				if (ready)
+					throw new IllegalStateException("Process 0 is training with a different vocab or configuration");
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+	}
+
+	/** @return Number of words trained so far by all the processes sharing the weights in the directory */
+	static long words(File directory) throws IOException {
+		File file = new File(directory, FILE_NAME);
+		try (SharedProgress progress = new SharedProgress(file, FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE), false, 0)) {
+			synchronized (SharedProgress.class) {
+				try (FileLock lock = progress.lock()) {
+					return progress.header.getLong(WORDS_OFFSET);
+				}
+			}
+		}
+	}
+
+	/** @return Whether this is process 0, which initializes the weights */
+	boolean isLeader() {
+		return leader;
+	}
+
+	/**
+	 * Let the other processes start, once the weights are initialized, then wait for all of them to
+	 * start too, so that they train their slices side by side rather than the first one getting
+	 * ahead while the others are still starting up
+	 */
+	void start() throws InterruptedException {
+		if (leader) {
+			synchronized (SharedProgress.class) {
+				try (FileLock lock = lock()) {
+					header.putInt(READY_OFFSET, 1);
+				} catch (IOException e) {
+					throw new IllegalStateException(String.format("Failed to update %s: %s", file.getAbsolutePath(), e), e);
+				}
+			}
+		}
+		incrementCount(STARTED_OFFSET, 1);
+		while (incrementCount(STARTED_OFFSET, 0) < numProcesses)
+			Thread.sleep(POLL_MILLIS);
+	}
+
+	/**
+	 * Add to the words trained by all processes
+	 * @return Total number of words trained by all processes
+	 */
+	long addWords(long words) {
+		synchronized (SharedProgress.class) {
+			try (FileLock lock = lock()) {
+				long total = header.getLong(WORDS_OFFSET) + words;
+				header.putLong(WORDS_OFFSET, total);
+				return total;
+			} catch (IOException e) {
+				throw new IllegalStateException(String.format("Failed to update %s: %s", file.getAbsolutePath(), e), e);
+			}
+		}
+	}
+
+	/** Mark this process as done, then wait for the other processes to be done too */
+	void finish() throws InterruptedException {
+		incrementCount(FINISHED_OFFSET, 1);
+		while (incrementCount(FINISHED_OFFSET, 0) < numProcesses)
+			Thread.sleep(POLL_MILLIS);
+	}
+
+	/** @return Number of processes counted at the given offset of the header, after adding the given number */
+	private int incrementCount(int offset, int processes) {
+		synchronized (SharedProgress.class) {
+			try (FileLock lock = lock()) {
+				int count = header.getInt(offset) + processes;
+				header.putInt(offset, count);
+				return count;
+			} catch (IOException e) {
+				throw new IllegalStateException(String.format("Failed to update %s: %s", file.getAbsolutePath(), e), e);
+			}
+		}
+	}
+
+	/**
+	 * Lock the header against the other processes. File locks are held by the whole JVM, so callers
+	 * also synchronize on the class, in case several trainers share weights within one JVM.
+	 */
+	private FileLock lock() throws IOException {
+		return channel.lock(0, SIZE, false);
+	}
+
+	@Override public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,140 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+import org.allenai.word2vec.Word2VecTrainerBuilder;
+import org.allenai.word2vec.huffman.HuffmanCodes;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Trainer for skip gram with negative sampling that shares one set of negative samples
+ * across the context window of a word, as in Intel's pWord2Vec
+ * <p>
+ * The syn0 rows of the context words and the syn1neg rows of the word and its negative samples
+ * are gathered into two small dense matrices, so the dot products become one matrix multiply and
+ * the updates two more, computed from the same snapshot of the rows before being scattered back.
+ * This does a lot more arithmetic per row that is read or written than the pair by pair updates
+ * of {@link SkipGramModelTrainer}, and each syn1neg row is written once per window instead of
+ * once per context word.
+ */
+class SkipGramMinibatchModelTrainer extends NeuralNetworkTrainer {
+
+	SkipGramMinibatchModelTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+		super(config, huffmanCodes, listener);
+		Preconditions.checkArgument(config.negativeSamples > 0, "%s requires negative samples", config.type);
+		Preconditions.checkArgument(!config.useHierarchicalSoftmax, "%s does not support hierarchical softmax", config.type);
+	}
+
+	/** {@link Worker} for {@link SkipGramMinibatchModelTrainer} */
+	private class SkipGramMinibatchWorker extends Worker {
+		/** syn0 rows of the context words */
+		private final double[][] inputs = new double[window * 2][layer1_size];
+		/** syn1neg rows of the word followed by the negative samples */
+		private final double[][] outputs = new double[config.negativeSamples + 1][layer1_size];
+		/** Updates to {@link #inputs} */
+		private final double[][] inputUpdates = new double[window * 2][layer1_size];
+		/** Updates to {@link #outputs} */
+		private final double[][] outputUpdates = new double[config.negativeSamples + 1][layer1_size];
+		/** Gradient times the learning rate for each pair of input and output */
+		private final double[][] g = new double[window * 2][config.negativeSamples + 1];
+		/** Vocab indices of {@link #inputs} and {@link #outputs} */
+		private final int[] inputRows = new int[window * 2];
+		private final int[] outputRows = new int[config.negativeSamples + 1];
+
+		private SkipGramMinibatchWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
+			super(index, randomSeed, iter, batches);
+		}
+
+		@Override void trainSentence(int[] sentence, int start, int end) {
+			for (int sentencePosition = start; sentencePosition < end; sentencePosition++) {
+				int word = sentence[sentencePosition];
+				nextPosition();
+
+				nextRandom = incrementRandom(nextRandom);
+				int b = (int)((nextRandom % window) + window) % window;
+
+				int numInputs = 0;
+				for (int a = b; a < window * 2 + 1 - b; a++) {
+					if (a == window)
+						continue;
+					int c = sentencePosition - window + a;
+					if (c < start || c >= end)
+						continue;
+					inputRows[numInputs++] = sentence[c];
+				}
+				if (numInputs == 0)
+					continue;
+
+				outputRows[0] = word;
+				for (int d = 1; d < outputRows.length; d++) {
+					nextRandom = incrementRandom(nextRandom);
+					outputRows[d] = negativeSampler.sample(nextRandom);
+				}
+
+				for (int i = 0; i < numInputs; i++)
+					copyInput(inputRows[i], inputs[i]);
+				for (int j = 0; j < outputRows.length; j++)
+					syn1neg.copyRow(outputRows[j], outputs[j]);
+
+				gradients(numInputs);
+				multiply(g, outputs, numInputs, outputRows.length, inputUpdates);
+				multiplyTransposed(g, inputs, numInputs, outputRows.length, outputUpdates);
+
+				for (int i = 0; i < numInputs; i++)
+					addToInput(inputRows[i], inputUpdates[i]);
+				for (int j = 0; j < outputRows.length; j++)
+					syn1neg.addToRow(outputRows[j], outputUpdates[j]);
+			}
+		}
+
+		/** Populate {@link #g} from the dot products of {@link #inputs} and {@link #outputs} */
+		private void gradients(int numInputs) {
+			for (int i = 0; i < numInputs; i++) {
+				double[] input = inputs[i];
+				for (int j = 0; j < outputRows.length; j++) {
+					// A negative sample that happens to be the word is skipped
+					if (j > 0 && outputRows[j] == outputRows[0]) {
+						g[i][j] = 0;
+						continue;
+					}
+					double f = kernel.dot(input, outputs[j], 0, layer1_size);
+					int label = j == 0 ? 1 : 0;
+					if (sampleLoss)
+						addLoss(f, label);
+					if (f > MAX_EXP)
+						g[i][j] = (label - 1) * alpha;
+					else if (f < -MAX_EXP)
+						g[i][j] = (label - 0) * alpha;
+					else
+						g[i][j] = (label - EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
+				}
+			}
+		}
+	}
+
+	/** result = a * b, where a is m x k and b is k x layer size */
+	private void multiply(double[][] a, double[][] b, int m, int k, double[][] result) {
+		for (int i = 0; i < m; i++) {
+			double[] row = result[i];
+			for (int c = 0; c < layer1_size; c++)
+				row[c] = 0;
+			for (int j = 0; j < k; j++)
+				kernel.axpy(a[i][j], b[j], 0, row, 0, layer1_size);
+		}
+	}
+
+	/** result = transpose(a) * b, where a is m x k and b is m x layer size */
+	private void multiplyTransposed(double[][] a, double[][] b, int m, int k, double[][] result) {
+		for (int j = 0; j < k; j++) {
+			double[] row = result[j];
+			for (int c = 0; c < layer1_size; c++)
+				row[c] = 0;
+			for (int i = 0; i < m; i++)
+				kernel.axpy(a[i][j], b[i], 0, row, 0, layer1_size);
+		}
+	}
+
+	@Override Worker createWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
+		return new SkipGramMinibatchWorker(index, randomSeed, iter, batches);
+	}
+}
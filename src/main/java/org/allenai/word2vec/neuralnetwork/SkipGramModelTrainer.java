@@ -1,35 +1,34 @@
 package org.allenai.word2vec.neuralnetwork;
 
-import com.google.common.collect.Multiset;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
-import org.allenai.word2vec.huffman.HuffmanCoding.HuffmanNode;
 import org.allenai.word2vec.Word2VecTrainerBuilder;
-import org.allenai.word2vec.huffman.HuffmanCoding;
+import org.allenai.word2vec.huffman.HuffmanCodes;
 
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Trainer for neural network using skip gram
  */
 class SkipGramModelTrainer extends NeuralNetworkTrainer {
 	
-	SkipGramModelTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-		super(config, counts, huffmanNodes, listener);
+	SkipGramModelTrainer(NeuralNetworkConfig config, HuffmanCodes huffmanCodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
+		super(config, huffmanCodes, listener);
 	}
 	
 	/** {@link Worker} for {@link SkipGramModelTrainer} */
 	private class SkipGramWorker extends Worker {
-		private SkipGramWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
-			super(randomSeed, iter, batch);
+		/** Copy of the syn0 row of the current context word */
+		private final double[] l1Row = new double[layer1_size];
+		
+		private SkipGramWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
+			super(index, randomSeed, iter, batches);
 		}
 		
-		@Override void trainSentence(List<String> sentence) {
-			int sentenceLength = sentence.size();
-			
-			for (int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++) {
-				String word = sentence.get(sentencePosition);
-				HuffmanCoding.HuffmanNode huffmanNode = huffmanNodes.get(word);
+		@Override void trainSentence(int[] sentence, int start, int end) {
+			for (int sentencePosition = start; sentencePosition < end; sentencePosition++) {
+				int word = sentence[sentencePosition];
+				int codeEnd = codeOffsets[word + 1];
+				nextPosition();
 
 				for (int c = 0; c < layer1_size; c++)
 					neu1[c] = 0;
@@ -44,49 +43,47 @@ class SkipGramModelTrainer extends NeuralNetworkTrainer {
 						continue;
 					int c = sentencePosition - window + a;
 					
-					if (c < 0 || c >= sentenceLength)
+					if (c < start || c >= end)
 						continue;
 					for (int d = 0; d < layer1_size; d++)
 						neu1e[d] = 0;
 					
-					int l1 = huffmanNodes.get(sentence.get(c)).idx;
+					int l1 = sentence[c];
+					copyInput(l1, l1Row);
 					
 					if (config.useHierarchicalSoftmax) {
-						for (int d = 0; d < huffmanNode.code.length; d++) {
-							double f = 0;
-							int l2 = huffmanNode.point[d];
+						for (int d = codeOffsets[word]; d < codeEnd; d++) {
+							int l2 = points[d];
 							// Propagate hidden -> output
-							for (int e = 0; e < layer1_size; e++)
-								f += syn0[l1][e] * syn1[l2][e];
+							double f = syn1.dot(l2, l1Row);
+							if (sampleLoss)
+								addLoss(f, 1 - codes[d]);
 							
 							if (f <= -MAX_EXP || f >= MAX_EXP)
 								continue;
 							else
 								f = EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
 							// 'g' is the gradient multiplied by the learning rate
-							double g = (1 - huffmanNode.code[d] - f) * alpha;
+							double g = (1 - codes[d] - f) * alpha;
 							
 							// Propagate errors output -> hidden
-							for (int e = 0; e < layer1_size; e++)
-								neu1e[e] += g * syn1[l2][e];
+							syn1.addRowTo(l2, g, neu1e);
 							// Learn weights hidden -> output
-							for (int e = 0; e < layer1_size; e++)
-								syn1[l2][e] += g * syn0[l1][e];
+							syn1.addToRow(l2, g, l1Row);
 						}
 					}
 					
-					handleNegativeSampling(huffmanNode);
+					if (config.negativeSamples > 0)
+						handleNegativeSampling(word, l1Row);
 					
 					// Learn weights input -> hidden
-					for (int d = 0; d < layer1_size; d++) {
-						syn0[l1][d] += neu1e[d];
-					}
+					addToInput(l1, neu1e);
 				}
 			}
 		}
 	}
 
-	@Override Worker createWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
-		return new SkipGramWorker(randomSeed, iter, batch);
+	@Override Worker createWorker(int index, int randomSeed, int iter, BlockingQueue<Batch> batches) {
+		return new SkipGramWorker(index, randomSeed, iter, batches);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Character n-grams of words hashed into a fixed number of buckets, as in fastText
+ * <p>
+ * Each word is wrapped in '&lt;' and '&gt;', so that its prefixes and suffixes are told apart
+ * from the same characters inside other words, e.g. the 3-grams of "where" are "&lt;wh", "whe",
+ * "her", "ere" and "re&gt;". The n-grams are hashed with 32-bit FNV-1a over their UTF-16 chars.
+ * Many n-grams share each bucket, which bounds the memory of the bucket vectors regardless of
+ * the number of distinct n-grams in the corpus.
+ */
+public class Subwords {
+	private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	final int minN;
+	final int maxN;
+	final int numBuckets;
+
+	/**
+	 * @param minN Length of the shortest n-grams, e.g. 3
+	 * @param maxN Length of the longest n-grams, e.g. 6
+	 * @param numBuckets Number of buckets to hash the n-grams into, e.g. 2,000,000
+	 */
+	public Subwords(int minN, int maxN, int numBuckets) {
+		Preconditions.checkArgument(minN > 0 && minN <= maxN, "Invalid n-gram lengths %s to %s", minN, maxN);
+		Preconditions.checkArgument(numBuckets > 0, "Value must be positive");
+		this.minN = minN;
+		this.maxN = maxN;
+		this.numBuckets = numBuckets;
+	}
+
+	/** @return Buckets of the n-grams of the given word, with repeats for n-grams that occur more than once */
+	public int[] buckets(String word) {
+		String wrapped = "<" + word + ">";
+		int[] result = new int[16];
+		int size = 0;
+		for (int start = 0; start < wrapped.length(); start++) {
+			int hash = FNV_OFFSET_BASIS;
+			for (int end = start; end < wrapped.length() && end - start < maxN; end++) {
+				hash = (hash ^ wrapped.charAt(end)) * FNV_PRIME;
+				int n = end - start + 1;
+				// Single characters at either end are only the markers
+				if (n < minN || (n == 1 && (start == 0 || end == wrapped.length() - 1)))
+					continue;
+				if (size == result.length)
+					result = Arrays.copyOf(result, size * 2);
+				result[size++] = (int)((hash & 0xFFFFFFFFL) % numBuckets);
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	@Override public String toString() {
+		return String.format("%s to %s character n-grams in %s buckets", minN, maxN, numBuckets);
+	}
+}
@@ -0,0 +1,114 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * View of a {@link WeightMatrix} that tracks which rows were written since the last call to
+ * {@link #reset()}, keeping the value each of them had before its first write
+ * <p>
+ * A {@link CoordinatorClient} uses this to only send and keep copies of the rows a process
+ * actually trained between two syncs, rather than diffing the whole matrix against a full copy.
+ * The first write to a row copies it under a lock, and publishes the copy before the write goes
+ * ahead. Every later write only checks that the copy exists, so the workers otherwise update the
+ * rows as freely as the matrix itself allows.
+ */
+class TrackedWeightMatrix extends WeightMatrix {
+	private final WeightMatrix matrix;
+	/** Values of the rows before their first write since the last reset, null for rows not written */
+	private final AtomicReferenceArray<double[]> bases;
+	/** Rows written since the last reset, in the order of their first write */
+	private int[] dirtyRows = new int[16];
+	private int numDirtyRows;
+
+	TrackedWeightMatrix(WeightMatrix matrix) {
+		super(matrix.rows, matrix.columns, matrix.stride);
+		this.matrix = matrix;
+		this.bases = new AtomicReferenceArray<>(matrix.rows);
+	}
+
+	/** Record the value of the row before its first write since the last reset */
+	private void touch(int row) {
+		if (bases.get(row) == null)
+			copyBase(row);
+	}
+
+	private synchronized void copyBase(int row) {
+		if (bases.get(row) != null)
+			return;
+		double[] base = new double[columns];
+		matrix.copyRow(row, base);
+		if (numDirtyRows == dirtyRows.length)
+			dirtyRows = Arrays.copyOf(dirtyRows, dirtyRows.length * 2);
+		dirtyRows[numDirtyRows++] = row;
+		bases.set(row, base);
+	}
+
+	/** @return Rows written since the last reset */
+	synchronized int[] dirtyRows() {
+		return Arrays.copyOf(dirtyRows, numDirtyRows);
+	}
+
+	/** @return Value of the row as of the last reset, which it still has if it was not written since */
+	double[] base(int row) {
+		double[] base = bases.get(row);
+		if (base == null) {
+			base = new double[columns];
+			matrix.copyRow(row, base);
+		}
+		return base;
+	}
+
+	/** Forget the rows written so far, taking the current values as the new starting point */
+	synchronized void reset() {
+		for (int i = 0; i < numDirtyRows; i++)
+			bases.set(dirtyRows[i], null);
+		numDirtyRows = 0;
+	}
+
+	/** Set the row without tracking it, for values that every process has in common */
+	void setUntracked(int row, double[] vec) {
+		matrix.setRow(row, vec);
+	}
+
+	@Override void set(int row, int column, double value) {
+		touch(row);
+		matrix.set(row, column, value);
+	}
+
+	@Override void setRow(int row, double[] vec) {
+		touch(row);
+		matrix.setRow(row, vec);
+	}
+
+	@Override double dot(int row, double[] vec) {
+		return matrix.dot(row, vec);
+	}
+
+	@Override void addRowTo(int row, double g, double[] vec) {
+		matrix.addRowTo(row, g, vec);
+	}
+
+	@Override void addRowTo(int row, double[] vec) {
+		matrix.addRowTo(row, vec);
+	}
+
+	@Override void addToRow(int row, double g, double[] vec) {
+		touch(row);
+		matrix.addToRow(row, g, vec);
+	}
+
+	@Override void addToRow(int row, double[] vec) {
+		touch(row);
+		matrix.addToRow(row, vec);
+	}
+
+	@Override void copyRow(int row, double[] vec) {
+		matrix.copyRow(row, vec);
+	}
+
+	@Override DoubleBuffer[] toDoubleBuffers() {
+		return matrix.toDoubleBuffers();
+	}
+}
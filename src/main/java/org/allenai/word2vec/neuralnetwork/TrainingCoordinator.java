@@ -0,0 +1,185 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+import org.allenai.word2vec.util.AutoLog;
+import org.apache.commons.logging.Log;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Coordinates the training of one model by several processes, each training on its own shard of
+ * the corpus and connected with a {@link CoordinatorClient}
+ * <p>
+ * The coordinator only relays: it sums the vocabs of the processes, then averages the changes to
+ * their weights at every sync. It holds no weights of its own, and serves a single training run.
+ * <p>
+ * Usage: TrainingCoordinator port numWorkers syncsPerIteration
+ */
+public class TrainingCoordinator implements Closeable {
+	private static final Log LOG = AutoLog.getLog();
+
+	private final TServerSocket serverSocket;
+	private final int numWorkers;
+	private final int syncsPerIteration;
+
+	/**
+	 * Listen on the given port, or any free port if 0
+	 * @param numWorkers Number of training processes to wait for
+	 * @param syncsPerIteration Number of times per iteration the processes exchange their changes
+	 */
+	public TrainingCoordinator(int port, int numWorkers, int syncsPerIteration) throws IOException {
+		Preconditions.checkArgument(numWorkers > 0, "Value must be positive");
+		Preconditions.checkArgument(syncsPerIteration > 0, "Value must be positive");
+		try {
+			this.serverSocket = new TServerSocket(new ServerSocket(port));
+		} catch (TException e) {
+			throw new IOException(e);
+		}
+		this.numWorkers = numWorkers;
+		this.syncsPerIteration = syncsPerIteration;
+	}
+
+	/** @return Port the coordinator is listening on */
+	public int getPort() {
+		return serverSocket.getServerSocket().getLocalPort();
+	}
+
+	/** Wait for all the processes to connect, then coordinate their training until they are all done */
+	public void run() throws TException {
+		List<TTransport> transports = new ArrayList<>(numWorkers);
+		List<TProtocol> workers = new ArrayList<>(numWorkers);
+		try {
+			serverSocket.listen();
+			while (workers.size() < numWorkers) {
+				TTransport transport = serverSocket.accept();
+				transports.add(transport);
+				workers.add(new TBinaryProtocol(transport));
+				LOG.info(String.format("%s of %s training processes connected", workers.size(), numWorkers));
+			}
+
+			exchangeVocab(workers, transports);
+			int syncs = 0;
+			while (sync(workers, transports))
+				syncs++;
+			LOG.info(String.format("Training done after %s syncs", syncs));
+		} finally {
+			for (TTransport transport : transports)
+				transport.close();
+			close();
+		}
+	}
+
+	/** Send every process the sum of the word counts of all of them */
+	private void exchangeVocab(List<TProtocol> workers, List<TTransport> transports) throws TException {
+		// Sorted, so that every process gets the words in the same order
+		Map<String, Long> counts = new TreeMap<>();
+		for (TProtocol worker : workers) {
+			int version = worker.readI32();
+			Preconditions.checkState(version == CoordinatorClient.VERSION, "Unsupported client version %s", version);
+			int size = worker.readI32();
+			for (int i = 0; i < size; i++) {
+				String word = worker.readString();
+				long count = worker.readI64();
+				Long previous = counts.get(word);
+				counts.put(word, previous == null ? count : previous + count);
+			}
+		}
+
+		for (int i = 0; i < workers.size(); i++) {
+			TProtocol worker = workers.get(i);
+			worker.writeI32(numWorkers);
+			worker.writeI32(syncsPerIteration);
+			worker.writeI32(counts.size());
+			for (Map.Entry<String, Long> e : counts.entrySet()) {
+				worker.writeString(e.getKey());
+				worker.writeI64(e.getValue());
+			}
+			transports.get(i).flush();
+		}
+	}
+
+	/**
+	 * Read the deltas of every process and send back their average
+	 * @return False if the processes are done instead
+	 */
+	private boolean sync(List<TProtocol> workers, List<TTransport> transports) throws TException {
+		int done = 0;
+		int numMatrices = -1;
+		int columns = -1;
+		// Sums of the deltas of the rows that changed, by matrix
+		List<Map<Integer, double[]>> sums = new ArrayList<>();
+		for (TProtocol worker : workers) {
+			int message = worker.readI32();
+			if (message == CoordinatorClient.DONE) {
+				done++;
+				continue;
+			}
+			Preconditions.checkState(message == CoordinatorClient.SYNC, "Unexpected message %s", message);
+			int m = worker.readI32();
+			int c = worker.readI32();
+			Preconditions.checkState(numMatrices < 0 || (m == numMatrices && c == columns),
+					"Training processes have different weights, %s x %s columns and %s x %s columns", m, c, numMatrices, columns);
+			numMatrices = m;
+			columns = c;
+			while (sums.size() < numMatrices)
+				sums.add(new HashMap<Integer, double[]>());
+
+			double[] delta = new double[columns];
+			for (int i = 0; i < numMatrices; i++) {
+				Map<Integer, double[]> matrix = sums.get(i);
+				for (int r = worker.readI32(); r != CoordinatorClient.END_OF_ROWS; r = worker.readI32()) {
+					CoordinatorClient.readRow(worker, delta);
+					double[] sum = matrix.get(r);
+					if (sum == null)
+						matrix.put(r, delta.clone());
+					else
+						for (int j = 0; j < columns; j++)
+							sum[j] += delta[j];
+				}
+			}
+		}
+		if (done == workers.size())
+			return false;
+		Preconditions.checkState(done == 0, "%s of %s training processes finished early", done, workers.size());
+
+		for (Map<Integer, double[]> matrix : sums) {
+			for (double[] sum : matrix.values()) {
+				for (int j = 0; j < sum.length; j++)
+					sum[j] /= numWorkers;
+			}
+		}
+		for (int i = 0; i < workers.size(); i++) {
+			TProtocol worker = workers.get(i);
+			for (Map<Integer, double[]> matrix : sums) {
+				for (Map.Entry<Integer, double[]> e : matrix.entrySet())
+					CoordinatorClient.writeRow(worker, e.getKey(), e.getValue());
+				worker.writeI32(CoordinatorClient.END_OF_ROWS);
+			}
+			transports.get(i).flush();
+		}
+		return true;
+	}
+
+	/** Stop listening */
+	@Override public void close() {
+		serverSocket.close();
+	}
+
+	/** Run a coordinator */
+	public static void main(String[] args) throws IOException, TException {
+		Preconditions.checkArgument(args.length == 3, "Usage: TrainingCoordinator port numWorkers syncsPerIteration");
+		new TrainingCoordinator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2])).run();
+	}
+}
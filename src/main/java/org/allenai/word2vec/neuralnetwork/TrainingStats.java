@@ -0,0 +1,154 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistics on the training of the neural network, reported at a fixed rate, see
+ * {@link NeuralNetworkConfig#setStatsListener}
+ * <p>
+ * Rates and idle times are over the time since the previous report. Per thread values are indexed
+ * by worker, which with one worker per thread and iteration amounts to the threads of the pool.
+ */
+public class TrainingStats {
+	private final double elapsedSeconds;
+	private final double intervalSeconds;
+	private final int iteration;
+	private final int iterations;
+	private final double alpha;
+	private final long words;
+	private final long droppedWords;
+	private final long sentences;
+	private final double[] threadWordsPerSecond;
+	private final double[] threadIdle;
+	private final ImmutableList<Double> iterationSeconds;
+	private final ImmutableList<Double> iterationLosses;
+
+	TrainingStats(
+			double elapsedSeconds,
+			double intervalSeconds,
+			int iteration,
+			int iterations,
+			double alpha,
+			long words,
+			long droppedWords,
+			long sentences,
+			double[] threadWordsPerSecond,
+			double[] threadIdle,
+			List<Double> iterationSeconds,
+			List<Double> iterationLosses) {
+		this.elapsedSeconds = elapsedSeconds;
+		this.intervalSeconds = intervalSeconds;
+		this.iteration = iteration;
+		this.iterations = iterations;
+		this.alpha = alpha;
+		this.words = words;
+		this.droppedWords = droppedWords;
+		this.sentences = sentences;
+		this.threadWordsPerSecond = threadWordsPerSecond;
+		this.threadIdle = threadIdle;
+		this.iterationSeconds = ImmutableList.copyOf(iterationSeconds);
+		this.iterationLosses = ImmutableList.copyOf(iterationLosses);
+	}
+
+	/** @return Seconds since training of the neural network started */
+	public double elapsedSeconds() {
+		return elapsedSeconds;
+	}
+
+	/** @return Seconds since the previous report, over which the rates and idle times are measured */
+	public double intervalSeconds() {
+		return intervalSeconds;
+	}
+
+	/** @return Iteration being trained, from 1 */
+	public int iteration() {
+		return iteration;
+	}
+
+	/** @return Number of iterations */
+	public int iterations() {
+		return iterations;
+	}
+
+	/** @return Current learning rate */
+	public double alpha() {
+		return alpha;
+	}
+
+	/** @return Words of the vocab processed so far, including those dropped by down sampling */
+	public long words() {
+		return words;
+	}
+
+	/** @return Words dropped by down sampling so far */
+	public long droppedWords() {
+		return droppedWords;
+	}
+
+	/** @return Sentences processed so far, across all iterations */
+	public long sentences() {
+		return sentences;
+	}
+
+	/** @return Words processed per second by all threads */
+	public double wordsPerSecond() {
+		double total = 0;
+		for (double w : threadWordsPerSecond)
+			total += w;
+		return total;
+	}
+
+	/** @return Words processed per second by the given thread */
+	public double threadWordsPerSecond(int thread) {
+		return threadWordsPerSecond[thread];
+	}
+
+	/** @return Share of the time the given thread spent waiting for sentences rather than training, between 0 and 1 */
+	public double threadIdle(int thread) {
+		return threadIdle[thread];
+	}
+
+	/** @return Number of threads */
+	public int numThreads() {
+		return threadWordsPerSecond.length;
+	}
+
+	/** @return Wall time of each completed iteration, in seconds */
+	public ImmutableList<Double> iterationSeconds() {
+		return iterationSeconds;
+	}
+
+	/** 
+	 * @return Estimated loss per output of each completed iteration, or nothing if the loss is not
+	 * estimated, see {@link NeuralNetworkConfig#setLossSampleInterval}
+	 */
+	public ImmutableList<Double> iterationLosses() {
+		return iterationLosses;
+	}
+
+	@Override public String toString() {
+		return String.format("Iteration %s of %s after %.1fs: %.0f words/s (%s per thread), alpha %.6f, %s words (%s dropped), %s sentences, idle %s, iterations took %ss%s",
+				iteration,
+				iterations,
+				elapsedSeconds,
+				wordsPerSecond(),
+				format(threadWordsPerSecond, "%.0f"),
+				alpha,
+				words,
+				droppedWords,
+				sentences,
+				format(threadIdle, "%.2f"),
+				iterationSeconds,
+				iterationLosses.isEmpty() ? "" : String.format(" with losses %s", iterationLosses));
+	}
+
+	private static String format(double[] values, String format) {
+		String[] result = new String[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = String.format(format, values[i]);
+		return Arrays.toString(result);
+	}
+}
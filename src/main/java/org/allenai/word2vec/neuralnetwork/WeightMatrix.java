@@ -0,0 +1,335 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Dense weight matrix of the neural network, e.g. syn0
+ * <p>
+ * Rows are stored back to back in flat primitive chunks rather than one array per row.
+ * A row never straddles two chunks, so every row is addressed by its chunk and a single offset.
+ * Weights on the heap may pad each row to whole cache lines, so that threads updating neighboring
+ * rows, e.g. of two frequent words, do not contend for the same cache line.
+ * <p>
+ * The operations are the level 1 routines used by the {@link NeuralNetworkTrainer.Worker}s,
+ * always taking the dense vector as a double[] so the arithmetic is done in double precision
+ * regardless of how the weights are stored. Weights on the heap do the arithmetic with a {@link Kernel}.
+ */
+abstract class WeightMatrix {
+	/**
+	 * Maximum number of values in a single chunk, matching the maximum size of a
+	 * {@link DoubleBuffer} in a {@link org.allenai.word2vec.Word2VecModel}
+	 */
+	static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE / 8;
+	/** Size of a cache line in bytes on common hardware */
+	private static final int CACHE_LINE_SIZE = 64;
+
+	final int rows;
+	final int columns;
+	/** Distance between the starts of consecutive rows, at least {@link #columns} */
+	final int stride;
+	final int rowsPerChunk;
+
+	WeightMatrix(int rows, int columns, int stride) {
+		this.rows = rows;
+		this.columns = columns;
+		this.stride = stride;
+		this.rowsPerChunk = MAX_CHUNK_SIZE / stride;
+	}
+
+	/**
+	 * @return Stride for rows of values of the given size in bytes such that no two rows share a
+	 * cache line. The array header puts the first row at an unknown offset into a cache line, so
+	 * this rounds up to whole cache lines after leaving room for the worst case offset.
+	 */
+	static int paddedStride(int columns, int bytesPerValue) {
+		int valuesPerLine = CACHE_LINE_SIZE / bytesPerValue;
+		return (columns + 2 * (valuesPerLine - 1)) / valuesPerLine * valuesPerLine;
+	}
+
+	/** @return Number of chunks needed to hold all the rows */
+	int numChunks() {
+		return rows / rowsPerChunk + (rows % rowsPerChunk != 0 ? 1 : 0);
+	}
+
+	/** @return Number of rows in the given chunk */
+	int rowsInChunk(int chunk) {
+		return Math.min(rowsPerChunk, rows - chunk * rowsPerChunk);
+	}
+
+	/** Set a single weight */
+	abstract void set(int row, int column, double value);
+
+	/** @return Dot product of the row and the vector */
+	abstract double dot(int row, double[] vec);
+
+	/** vec += g * row */
+	abstract void addRowTo(int row, double g, double[] vec);
+
+	/** vec += row */
+	abstract void addRowTo(int row, double[] vec);
+
+	/** row += g * vec */
+	abstract void addToRow(int row, double g, double[] vec);
+
+	/** row += vec */
+	abstract void addToRow(int row, double[] vec);
+
+	/** Copy the row into the vector */
+	abstract void copyRow(int row, double[] vec);
+
+	/** Copy the vector into the row */
+	void setRow(int row, double[] vec) {
+		for (int c = 0; c < columns; c++)
+			set(row, c, vec[c]);
+	}
+
+	/**
+	 * @return Rows of the matrix, with each {@link DoubleBuffer} holding the rows of one chunk.
+	 * This may be a view of the weights rather than a copy.
+	 */
+	abstract DoubleBuffer[] toDoubleBuffers();
+
+	/** @return Copy of the rows without any padding, chunked as in {@link #toDoubleBuffers()} for an unpadded matrix */
+	DoubleBuffer[] copyToDoubleBuffers() {
+		int rowsPerBuffer = MAX_CHUNK_SIZE / columns;
+		DoubleBuffer[] result = new DoubleBuffer[rows / rowsPerBuffer + (rows % rowsPerBuffer != 0 ? 1 : 0)];
+		double[] row = new double[columns];
+		for (int i = 0; i < result.length; i++) {
+			int first = i * rowsPerBuffer;
+			double[] copy = new double[Math.min(rowsPerBuffer, rows - first) * columns];
+			for (int r = 0; r < copy.length / columns; r++) {
+				copyRow(first + r, row);
+				System.arraycopy(row, 0, copy, r * columns, columns);
+			}
+			result[i] = DoubleBuffer.wrap(copy);
+		}
+		return result;
+	}
+
+	/** 
+	 * @param padRows Whether to pad the rows to whole cache lines, see {@link #paddedStride}
+	 * @return {@link WeightMatrix} backed by double[] chunks
+	 */
+	static WeightMatrix doubles(int rows, int columns, boolean padRows, Kernel kernel) {
+		return new DoubleArrayMatrix(rows, columns, padRows ? paddedStride(columns, 8) : columns, kernel);
+	}
+
+	/** 
+	 * @param padRows Whether to pad the rows to whole cache lines, see {@link #paddedStride}
+	 * @return {@link WeightMatrix} backed by float[] chunks
+	 */
+	static WeightMatrix floats(int rows, int columns, boolean padRows, Kernel kernel) {
+		return new FloatArrayMatrix(rows, columns, padRows ? paddedStride(columns, 4) : columns, kernel);
+	}
+
+	/** @return {@link WeightMatrix} backed by direct buffers allocated outside of the heap */
+	static WeightMatrix direct(int rows, int columns) {
+		DoubleBufferMatrix matrix = new DoubleBufferMatrix(rows, columns);
+		for (int i = 0; i < matrix.chunks.length; i++)
+			matrix.chunks[i] = ByteBuffer.allocateDirect(matrix.rowsInChunk(i) * columns * 8)
+					.order(ByteOrder.nativeOrder())
+					.asDoubleBuffer();
+		return matrix;
+	}
+
+	/** 
+	 * @param truncate Whether to zero the weights, rather than keep those already in the file
+	 * @return {@link WeightMatrix} backed by the given memory-mapped file, which is created if needed
+	 */
+	static WeightMatrix mapped(File file, int rows, int columns, boolean truncate) {
+		DoubleBufferMatrix matrix = new DoubleBufferMatrix(rows, columns);
+		Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (truncate)
+			options.add(StandardOpenOption.TRUNCATE_EXISTING);
+		try (FileChannel channel = FileChannel.open(file.toPath(), options)) {
+			for (int i = 0; i < matrix.chunks.length; i++) {
+				long position = (long)i * matrix.rowsPerChunk * columns * 8;
+				matrix.chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, (long)matrix.rowsInChunk(i) * columns * 8)
+						.order(ByteOrder.nativeOrder())
+						.asDoubleBuffer();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to map %s: %s", file.getAbsolutePath(), e), e);
+		}
+		return matrix;
+	}
+
+	/** {@link WeightMatrix} backed by double[] chunks */
+	private static class DoubleArrayMatrix extends WeightMatrix {
+		private final double[][] chunks;
+		private final Kernel kernel;
+
+		private DoubleArrayMatrix(int rows, int columns, int stride, Kernel kernel) {
+			super(rows, columns, stride);
+			this.kernel = kernel;
+			this.chunks = new double[numChunks()][];
+			for (int i = 0; i < chunks.length; i++)
+				chunks[i] = new double[rowsInChunk(i) * stride];
+		}
+
+		@Override void set(int row, int column, double value) {
+			chunks[row / rowsPerChunk][(row % rowsPerChunk) * stride + column] = value;
+		}
+
+		@Override double dot(int row, double[] vec) {
+			return kernel.dot(vec, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, columns);
+		}
+
+		@Override void addRowTo(int row, double g, double[] vec) {
+			kernel.axpy(g, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, vec, 0, columns);
+		}
+
+		@Override void addRowTo(int row, double[] vec) {
+			kernel.axpy(1, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, vec, 0, columns);
+		}
+
+		@Override void addToRow(int row, double g, double[] vec) {
+			kernel.axpy(g, vec, 0, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, columns);
+		}
+
+		@Override void addToRow(int row, double[] vec) {
+			kernel.axpy(1, vec, 0, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, columns);
+		}
+
+		@Override void copyRow(int row, double[] vec) {
+			System.arraycopy(chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, vec, 0, columns);
+		}
+
+		@Override DoubleBuffer[] toDoubleBuffers() {
+			if (stride != columns)
+				return copyToDoubleBuffers();
+			DoubleBuffer[] result = new DoubleBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++)
+				result[i] = DoubleBuffer.wrap(chunks[i]);
+			return result;
+		}
+	}
+
+	/** {@link WeightMatrix} backed by float[] chunks, using half the memory of {@link DoubleArrayMatrix} */
+	private static class FloatArrayMatrix extends WeightMatrix {
+		private final float[][] chunks;
+		private final Kernel kernel;
+
+		private FloatArrayMatrix(int rows, int columns, int stride, Kernel kernel) {
+			super(rows, columns, stride);
+			this.kernel = kernel;
+			this.chunks = new float[numChunks()][];
+			for (int i = 0; i < chunks.length; i++)
+				chunks[i] = new float[rowsInChunk(i) * stride];
+		}
+
+		@Override void set(int row, int column, double value) {
+			chunks[row / rowsPerChunk][(row % rowsPerChunk) * stride + column] = (float)value;
+		}
+
+		@Override double dot(int row, double[] vec) {
+			return kernel.dot(vec, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, columns);
+		}
+
+		@Override void addRowTo(int row, double g, double[] vec) {
+			kernel.axpy(g, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, vec, 0, columns);
+		}
+
+		@Override void addRowTo(int row, double[] vec) {
+			kernel.axpy(1, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, vec, 0, columns);
+		}
+
+		@Override void addToRow(int row, double g, double[] vec) {
+			kernel.axpy(g, vec, 0, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, columns);
+		}
+
+		@Override void addToRow(int row, double[] vec) {
+			kernel.axpy(1, vec, 0, chunks[row / rowsPerChunk], (row % rowsPerChunk) * stride, columns);
+		}
+
+		@Override void copyRow(int row, double[] vec) {
+			float[] chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * stride;
+			for (int c = 0; c < columns; c++)
+				vec[c] = chunk[offset + c];
+		}
+
+		@Override DoubleBuffer[] toDoubleBuffers() {
+			return copyToDoubleBuffers();
+		}
+	}
+
+	/** 
+	 * {@link WeightMatrix} backed by {@link DoubleBuffer}s outside of the heap, either direct or
+	 * memory-mapped from a file. Chunks are addressed with 64-bit offsets into the file, so the
+	 * matrix may be larger than 2GB, and the chunks are directly usable as the vectors of a
+	 * {@link org.allenai.word2vec.Word2VecModel}.
+	 */
+	private static class DoubleBufferMatrix extends WeightMatrix {
+		private final DoubleBuffer[] chunks;
+
+		/** Chunks are allocated by the factory methods */
+		private DoubleBufferMatrix(int rows, int columns) {
+			super(rows, columns, columns);
+			this.chunks = new DoubleBuffer[numChunks()];
+		}
+
+		@Override void set(int row, int column, double value) {
+			chunks[row / rowsPerChunk].put((row % rowsPerChunk) * columns + column, value);
+		}
+
+		@Override double dot(int row, double[] vec) {
+			DoubleBuffer chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * columns;
+			double f = 0;
+			for (int c = 0; c < columns; c++)
+				f += vec[c] * chunk.get(offset + c);
+			return f;
+		}
+
+		@Override void addRowTo(int row, double g, double[] vec) {
+			DoubleBuffer chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * columns;
+			for (int c = 0; c < columns; c++)
+				vec[c] += g * chunk.get(offset + c);
+		}
+
+		@Override void addRowTo(int row, double[] vec) {
+			DoubleBuffer chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * columns;
+			for (int c = 0; c < columns; c++)
+				vec[c] += chunk.get(offset + c);
+		}
+
+		@Override void addToRow(int row, double g, double[] vec) {
+			DoubleBuffer chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * columns;
+			for (int c = 0; c < columns; c++)
+				chunk.put(offset + c, chunk.get(offset + c) + g * vec[c]);
+		}
+
+		@Override void addToRow(int row, double[] vec) {
+			DoubleBuffer chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * columns;
+			for (int c = 0; c < columns; c++)
+				chunk.put(offset + c, chunk.get(offset + c) + vec[c]);
+		}
+
+		@Override void copyRow(int row, double[] vec) {
+			DoubleBuffer chunk = chunks[row / rowsPerChunk];
+			int offset = (row % rowsPerChunk) * columns;
+			for (int c = 0; c < columns; c++)
+				vec[c] = chunk.get(offset + c);
+		}
+
+		@Override DoubleBuffer[] toDoubleBuffers() {
+			DoubleBuffer[] result = new DoubleBuffer[chunks.length];
+			for (int i = 0; i < chunks.length; i++)
+				result[i] = chunks[i].duplicate();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+
+/**
+ * Supported storage for the weight matrices of the neural network
+ */
+public enum WeightStorage {
+	/** Double precision weights, matching the original behavior exactly */
+	DOUBLE_ARRAY {
+		@Override WeightMatrix create(NeuralNetworkConfig config, Kernel kernel, String name, int rows) {
+			return WeightMatrix.doubles(rows, config.layerSize, config.padRows, kernel);
+		}
+	},
+	/** Single precision weights, like the C version, using half the memory of {@link #DOUBLE_ARRAY} */
+	FLOAT_ARRAY {
+		@Override WeightMatrix create(NeuralNetworkConfig config, Kernel kernel, String name, int rows) {
+			return WeightMatrix.floats(rows, config.layerSize, config.padRows, kernel);
+		}
+	},
+	/** 
+	 * Double precision weights in direct buffers outside of the heap, which keeps large models
+	 * out of the way of the garbage collector. The trained vectors are used by the resulting
+	 * model without being copied, so the rows are never padded.
+	 */
+	DIRECT {
+		@Override WeightMatrix create(NeuralNetworkConfig config, Kernel kernel, String name, int rows) {
+			return WeightMatrix.direct(rows, config.layerSize);
+		}
+	},
+	/** 
+	 * Double precision weights memory-mapped from files in {@link NeuralNetworkConfig#weightDirectory},
+	 * so the size of the model is bounded by disk rather than memory. The trained vectors are
+	 * used by the resulting model without being copied, so the rows are never padded.
+	 * <p>
+	 * Existing files are overwritten, unless the weights are shared with process 0 of
+	 * {@link NeuralNetworkConfig#setSharedWeights}, which has initialized them.
+	 */
+	MAPPED {
+		@Override WeightMatrix create(NeuralNetworkConfig config, Kernel kernel, String name, int rows) {
+			Preconditions.checkState(config.weightDirectory != null, "A weight directory is required for %s weights", this);
+			boolean attach = config.numSharedProcesses > 0 && config.sharedProcess > 0;
+			return WeightMatrix.mapped(new File(config.weightDirectory, name), rows, config.layerSize, !attach);
+		}
+	},
+	;
+
+	/** 
+	 * @param kernel {@link Kernel} for the arithmetic, if the storage supports it
+	 * @param name Name of the matrix, e.g. syn0
+	 * @return New zero-initialized {@link WeightMatrix} with {@link NeuralNetworkConfig#layerSize} columns
+	 */
+	abstract WeightMatrix create(NeuralNetworkConfig config, Kernel kernel, String name, int rows);
+}
@@ -0,0 +1,52 @@
+package org.allenai.word2vec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/** Tests for {@link Phrases} */
+public class PhrasesTest {
+	/** @return Sentences of random words from a small vocab, with "new york" in every tenth */
+	private static List<List<String>> sentences() {
+		Random random = new Random(0);
+		List<List<String>> sentences = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			List<String> sentence = new ArrayList<>();
+			for (int j = 0; j < 10; j++)
+				sentence.add("w" + random.nextInt(100));
+			if (i % 10 == 0)
+				sentence.addAll(3, ImmutableList.of("new", "york"));
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+
+	/** Test that a frequent pair is joined and pairs of independent words are not */
+	@Test
+	public void testLearn() throws InterruptedException {
+		Phrases phrases = Phrases.learn(sentences(), 5, 100, 1_000_000, 4);
+
+		assertEquals(1, phrases.size());
+		assertTrue(phrases.isPhrase("new", "york"));
+		assertFalse(phrases.isPhrase("york", "new"));
+		assertEquals(
+				ImmutableList.of("in", "new_york", "new", "w1"),
+				phrases.join(ImmutableList.of("in", "new", "york", "new", "w1")));
+	}
+
+	/** Test that pruning the counts to a fraction of the distinct pairs still finds the frequent one */
+	@Test
+	public void testPrunedCounts() throws InterruptedException {
+		Phrases phrases = Phrases.learn(sentences(), 5, 100, 2_000, 4);
+
+		assertTrue(phrases.isPhrase("new", "york"));
+	}
+}
@@ -0,0 +1,44 @@
+package org.allenai.word2vec;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+
+/** Tests for {@link ProgressReporter} */
+public class ProgressReporterTest {
+	/** Test that a blocked listener does not hold up updates, and then hears of the latest progress of every stage in order */
+	@Test
+	public void testBlockedListener() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final List<String> reports = new CopyOnWriteArrayList<>();
+		ProgressReporter reporter = new ProgressReporter(new TrainingProgressListener() {
+			@Override public void update(Stage stage, double progress) {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+				reports.add(stage + " " + progress);
+			}
+		}, 1, TimeUnit.MILLISECONDS);
+
+		reporter.update(Stage.ACQUIRE_VOCAB, 0.0);
+		for (int i = 1; i <= 1_000; i++) {
+			reporter.update(Stage.CREATE_HUFFMAN_ENCODING, i / 1_000.0);
+			reporter.update(Stage.TRAIN_NEURAL_NETWORK, i / 1_000.0);
+		}
+		blocked.countDown();
+		reporter.close();
+
+		assertEquals(ImmutableList.of("ACQUIRE_VOCAB 0.0", "CREATE_HUFFMAN_ENCODING 1.0", "TRAIN_NEURAL_NETWORK 1.0"), reports);
+	}
+}
@@ -0,0 +1,65 @@
+package org.allenai.word2vec;
+
+import java.util.List;
+import java.util.Random;
+
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.allenai.word2vec.neuralnetwork.NeuralNetworkType;
+
+/**
+ * Measures how the training throughput of skip gram scales with the number of threads,
+ * with and without padded rows, on the synthetic corpus of {@link TrainingBenchmark}
+ * <p>
+ * Usage: ScalingBenchmark [maxThreads] [layerSize] [numWords]
+ * <p>
+ * The number of threads doubles from 1 up to maxThreads. Small layer sizes show the most
+ * contention between threads, since more rows share each cache line.
+ */
+public class ScalingBenchmark {
+	private static final TrainingProgressListener NO_OP = new TrainingProgressListener() {
+		@Override public void update(Stage stage, double progress) {
+		}
+	};
+
+	/** Run the benchmark */
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int layerSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int numWords = args.length > 2 ? Integer.parseInt(args[2]) : 5_000_000;
+		List<List<String>> corpus = TrainingBenchmark.corpus(numWords, new Random(1));
+
+		for (boolean padRows : new boolean[] { false, true }) {
+			// Warm up the JIT on a tenth of the corpus
+			train(padRows, maxThreads, layerSize, corpus.subList(0, corpus.size() / 10));
+			double base = 0;
+			for (int numThreads = 1; numThreads <= maxThreads; numThreads = nextThreads(numThreads, maxThreads)) {
+				long start = System.nanoTime();
+				train(padRows, numThreads, layerSize, corpus);
+				double wordsPerSecond = numWords / ((System.nanoTime() - start) / 1e9);
+				if (numThreads == 1)
+					base = wordsPerSecond;
+				System.out.println(String.format("%s rows with %s threads: %.0f words/s, %.2fx speedup",
+						padRows ? "Padded" : "Unpadded", numThreads, wordsPerSecond, wordsPerSecond / base));
+			}
+		}
+	}
+
+	/** @return Double the number of threads, ending with exactly maxThreads */
+	private static int nextThreads(int numThreads, int maxThreads) {
+		return numThreads < maxThreads ? Math.min(numThreads * 2, maxThreads) : maxThreads + 1;
+	}
+
+	private static void train(boolean padRows, int numThreads, int layerSize, List<List<String>> corpus) throws InterruptedException {
+		Word2VecTrainerBuilder builder = Word2VecModel.trainer()
+				.type(NeuralNetworkType.SKIP_GRAM)
+				.useNumThreads(numThreads)
+				.useNegativeSamples(5)
+				.setLayerSize(layerSize)
+				.setWindowSize(5)
+				.setNumIterations(1)
+				.setListener(NO_OP);
+		if (padRows)
+			builder.usePaddedRows();
+		builder.train(corpus);
+	}
+}
@@ -0,0 +1,44 @@
+package org.allenai.word2vec;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSortedMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+import com.google.common.primitives.Longs;
+
+/** Tests for {@link SortedVocab} */
+public class SortedVocabTest {
+	/** Test that a vocab large enough to be sorted in parallel comes out in the same order as sorting {@link Multiset}s */
+	@Test
+	public void testOrder() {
+		Random random = new Random(0);
+		final Multiset<String> counts = HashMultiset.create();
+		for (int i = 0; i < 100_000; i++)
+			counts.add("w" + random.nextInt(50_000), 1 + random.nextInt(20));
+
+		SortedVocab vocab = SortedVocab.of(TokenCounts.of(counts), 5);
+
+		ImmutableMultiset<String> expected = Multisets.copyHighestCountFirst(
+				ImmutableSortedMultiset.copyOf(Multisets.filter(counts, new Predicate<String>() {
+					@Override public boolean apply(String s) {
+						return counts.count(s) >= 5;
+					}
+				})));
+		assertEquals(ImmutableList.copyOf(expected.elementSet()), vocab.tokens);
+		List<Long> expectedCounts = new ArrayList<>();
+		for (Multiset.Entry<String> e : expected.entrySet())
+			expectedCounts.add((long)e.getCount());
+		assertEquals(expectedCounts, Longs.asList(vocab.counts));
+	}
+}
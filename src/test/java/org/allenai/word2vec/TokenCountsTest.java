@@ -0,0 +1,155 @@
+package org.allenai.word2vec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+
+/** Tests for {@link TokenCounts} and the {@link VocabCounter}s */
+public class TokenCountsTest {
+	/** @return Sentences of words with a skewed distribution over a vocab larger than the initial table */
+	private static List<List<String>> sentences() {
+		Random random = new Random(0);
+		List<List<String>> sentences = new ArrayList<>();
+		for (int i = 0; i < 5_000; i++) {
+			List<String> sentence = new ArrayList<>();
+			for (int j = 0; j < 20; j++)
+				sentence.add("w" + (int)Math.pow(5_000, random.nextDouble()));
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+
+	/** Test that counting in parallel without reaching the limit matches counting into a {@link Multiset} */
+	@Test
+	public void testExactCounts() throws InterruptedException {
+		List<List<String>> sentences = sentences();
+		Multiset<String> expected = HashMultiset.create();
+		for (List<String> sentence : sentences)
+			expected.addAll(sentence);
+
+		TokenCounts counts = new VocabCounter.TableCounter(4, 1_000_000).count(sentences);
+
+		assertEquals(expected, counts.toMultiset());
+		assertEquals(sentences.size(), counts.numSentences());
+		assertEquals(expected.size(), counts.numTokens());
+	}
+
+	/** Test that a small sketch finds every token of the vocab, and that recounting makes their counts exact */
+	@Test
+	public void testSketchCounts() throws InterruptedException {
+		List<List<String>> sentences = sentences();
+		Multiset<String> expected = HashMultiset.create();
+		for (List<String> sentence : sentences)
+			expected.addAll(sentence);
+
+		long minCount = 20;
+		TokenCounts estimated = new VocabCounter.SketchCounter(4, 1_000_000, minCount, 1 << 12, false).count(sentences);
+		TokenCounts recounted = new VocabCounter.SketchCounter(4, 1_000_000, minCount, 1 << 12, true).count(sentences);
+
+		for (Multiset.Entry<String> e : expected.entrySet()) {
+			if (e.getCount() < minCount)
+				continue;
+			assertTrue(estimated.count(e.getElement()) >= e.getCount());
+			assertEquals(e.getCount(), recounted.count(e.getElement()));
+		}
+		assertTrue(estimated.size() < expected.elementSet().size());
+		for (Multiset.Entry<String> e : recounted.toMultiset().entrySet())
+			assertEquals(expected.count(e.getElement()), e.getCount());
+		assertEquals(sentences.size(), recounted.numSentences());
+		assertEquals(expected.size(), recounted.numTokens());
+	}
+
+	/** Test that merging a large table into an empty one does not pile its tokens up in one cluster */
+	@Test(timeout = 30_000)
+	public void testMergeLargeTable() {
+		TokenCounts counts = new TokenCounts(TokenCounts.MAX_SIZE);
+		for (int i = 0; i < 1_000_000; i++)
+			counts.add("w" + i, 1);
+		TokenCounts merged = new TokenCounts(TokenCounts.MAX_SIZE);
+		merged.addAll(counts);
+		assertEquals(counts.size(), merged.size());
+	}
+
+	/** Test that a saturated sketch with more candidates than fit drops the rarest ones, keeping the most frequent */
+	@Test
+	public void testSketchOverflow() throws InterruptedException {
+		List<List<String>> sentences = sentences();
+		Multiset<String> expected = HashMultiset.create();
+		for (List<String> sentence : sentences)
+			expected.addAll(sentence);
+
+		TokenCounts counts = new VocabCounter.SketchCounter(1, 40, 20, 1 << 12, true).count(sentences);
+
+		assertTrue(counts.size() <= 40);
+		for (String token : Iterables.limit(Multisets.copyHighestCountFirst(expected).elementSet(), 10))
+			assertEquals(expected.count(token), counts.count(token));
+	}
+
+	/** Test that when more candidates than fit have the same estimate, half of them are kept rather than none */
+	@Test
+	public void testSketchOverflowWithEqualEstimates() throws InterruptedException {
+		List<List<String>> sentences = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			List<String> sentence = new ArrayList<>();
+			for (int j = 0; j < 100; j++)
+				sentence.add("w" + j);
+			sentences.add(sentence);
+		}
+
+		TokenCounts counts = new VocabCounter.SketchCounter(1, 40, 5, 1 << 20, false).count(sentences);
+
+		assertTrue(counts.size() >= 20 && counts.size() <= 40);
+		for (Multiset.Entry<String> e : counts.toMultiset().entrySet())
+			assertEquals(5, e.getCount());
+	}
+
+	/** Test that threads which each see more candidates than their share of the maximum vocab size keep them all */
+	@Test
+	public void testSketchVocabLargerThanThreadShare() throws InterruptedException {
+		List<List<String>> sentences = sentences();
+		Multiset<String> expected = HashMultiset.create();
+		for (List<String> sentence : sentences)
+			expected.addAll(sentence);
+		long minCount = 20;
+		int vocabSize = 0;
+		for (Multiset.Entry<String> e : expected.entrySet()) {
+			if (e.getCount() >= minCount)
+				vocabSize++;
+		}
+
+		int numThreads = 4;
+		int maxVocabSize = vocabSize * 3 / 2;
+		assertTrue(vocabSize > maxVocabSize / numThreads);
+		TokenCounts counts = new VocabCounter.SketchCounter(numThreads, maxVocabSize, minCount, 1 << 20, true).count(sentences);
+
+		for (Multiset.Entry<String> e : expected.entrySet()) {
+			if (e.getCount() >= minCount)
+				assertEquals(e.getCount(), counts.count(e.getElement()));
+		}
+	}
+
+	/** Test that reducing drops the rarest tokens first, with a cutoff raised on every reduction */
+	@Test
+	public void testReduce() {
+		TokenCounts counts = new TokenCounts(3);
+		counts.add(ImmutableList.of("a", "a", "a", "b", "b", "c"));
+		assertEquals(3, counts.size());
+		counts.add(ImmutableList.of("d"));
+		assertEquals(ImmutableList.of(3L, 2L, 0L, 0L), ImmutableList.of(counts.count("a"), counts.count("b"), counts.count("c"), counts.count("d")));
+		counts.add(ImmutableList.of("e", "f"));
+		assertEquals(1, counts.size());
+		assertEquals(ImmutableList.of(3L, 0L, 0L), ImmutableList.of(counts.count("a"), counts.count("b"), counts.count("f")));
+		assertEquals(9, counts.numTokens());
+	}
+}
@@ -0,0 +1,84 @@
+package org.allenai.word2vec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.allenai.word2vec.neuralnetwork.KernelType;
+import org.allenai.word2vec.neuralnetwork.NeuralNetworkType;
+
+/**
+ * Measures the training throughput of the skip gram kernels, in words per second, on a synthetic
+ * corpus of Zipf distributed tokens
+ * <p>
+ * Usage: TrainingBenchmark [numThreads] [numWords]
+ * <p>
+ * Each kernel is run with each {@link KernelType}; run with --add-modules jdk.incubator.vector
+ * to include {@link KernelType#VECTOR}.
+ */
+public class TrainingBenchmark {
+	private static final int VOCAB_SIZE = 30_000;
+	private static final int SENTENCE_LENGTH = 1_000;
+
+	private static final TrainingProgressListener NO_OP = new TrainingProgressListener() {
+		@Override public void update(Stage stage, double progress) {
+		}
+	};
+
+	/** Run the benchmark */
+	public static void main(String[] args) throws InterruptedException {
+		int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int numWords = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+		List<List<String>> corpus = corpus(numWords, new Random(1));
+
+		for (NeuralNetworkType type : Arrays.asList(NeuralNetworkType.SKIP_GRAM, NeuralNetworkType.SKIP_GRAM_MINIBATCH)) {
+			for (KernelType kernel : KernelType.values()) {
+				// Warm up the JIT on a tenth of the corpus
+				train(type, kernel, numThreads, corpus.subList(0, corpus.size() / 10));
+				long start = System.nanoTime();
+				train(type, kernel, numThreads, corpus);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.println(String.format("%s, %s kernel with %s threads: %.0f words/s", type, kernel, numThreads, numWords / seconds));
+			}
+		}
+	}
+
+	private static void train(NeuralNetworkType type, KernelType kernel, int numThreads, List<List<String>> corpus) throws InterruptedException {
+		Word2VecModel.trainer()
+				.type(type)
+				.setKernel(kernel)
+				.useNumThreads(numThreads)
+				.useNegativeSamples(5)
+				.setLayerSize(100)
+				.setWindowSize(5)
+				.setNumIterations(1)
+				.setListener(NO_OP)
+				.train(corpus);
+	}
+
+	/** @return Sentences of tokens drawn from a Zipf distribution over {@link #VOCAB_SIZE} words */
+	static List<List<String>> corpus(int numWords, Random random) {
+		double[] cumulative = new double[VOCAB_SIZE];
+		double total = 0;
+		for (int i = 0; i < VOCAB_SIZE; i++) {
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		String[] words = new String[VOCAB_SIZE];
+		for (int i = 0; i < VOCAB_SIZE; i++)
+			words[i] = "w" + i;
+
+		List<List<String>> sentences = new ArrayList<>();
+		for (int n = 0; n < numWords; n += SENTENCE_LENGTH) {
+			List<String> sentence = new ArrayList<>(SENTENCE_LENGTH);
+			for (int i = 0; i < SENTENCE_LENGTH; i++) {
+				int idx = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+				sentence.add(words[idx < 0 ? -idx - 1 : idx]);
+			}
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+}
@@ -0,0 +1,121 @@
+package org.allenai.word2vec;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.thrift.TException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import org.allenai.word2vec.neuralnetwork.NeuralNetworkType;
+import org.allenai.word2vec.thrift.Word2VecModelThrift;
+import org.allenai.word2vec.util.ThriftUtils;
+
+/**
+ * Trains on a shard of the test data in a JVM of its own, for tests of training with several
+ * processes, either through a coordinator or sharing mapped weights. The model is written to a
+ * file as Thrift JSON.
+ * <p>
+ * Usage: TrainingProcess coordinator host port shard numShards output
+ * <br>
+ * or: TrainingProcess shared directory shard numShards output
+ */
+public class TrainingProcess {
+	/** Most time to wait for a training process to finish */
+	private static final long TIMEOUT_MINUTES = 5;
+
+	/** @return Process training on the given shard through the coordinator at the given port of this machine */
+	@VisibleForTesting
+	public static Process start(int port, int shard, int numShards, File output) throws IOException {
+		return launch("coordinator", "localhost", Integer.toString(port), Integer.toString(shard), Integer.toString(numShards), output.getPath());
+	}
+
+	/** @return Process training on the given shard with the weights shared in the directory, see {@link #sharedTrainer} */
+	@VisibleForTesting
+	public static Process startShared(File directory, int shard, int numShards, File output) throws IOException {
+		return launch("shared", directory.getPath(), Integer.toString(shard), Integer.toString(numShards), output.getPath());
+	}
+
+	private static Process launch(String... args) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(TrainingProcess.class.getName());
+		command.addAll(ImmutableList.copyOf(args));
+		return new ProcessBuilder(command)
+				.redirectOutput(Redirect.INHERIT)
+				.redirectError(Redirect.INHERIT)
+				.start();
+	}
+
+	/** @return Model written by the process, once it has finished */
+	@VisibleForTesting
+	public static Word2VecModel await(Process process, File output) throws InterruptedException, IOException, TException {
+		if (!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+			process.destroyForcibly();
+			throw new IllegalStateException(String.format("Training process did not finish within %s minutes", TIMEOUT_MINUTES));
+		}
+		Preconditions.checkState(process.exitValue() == 0, "Training process failed with exit code %s", process.exitValue());
+		String thrift = FileUtils.readFileToString(output, StandardCharsets.UTF_8);
+		return Word2VecModel.fromThrift(ThriftUtils.deserializeJson(new Word2VecModelThrift(), thrift));
+	}
+
+	/** @return The given shard of the test data, out of numShards equal ones */
+	@VisibleForTesting
+	public static List<List<String>> shard(int shard, int numShards) throws IOException {
+		List<List<String>> sentences = ImmutableList.copyOf(Word2VecTest.testData());
+		return Lists.partition(sentences, sentences.size() / numShards).get(shard);
+	}
+
+	/** @return Trainer of a skip-gram model with negative sampling, which learns good neighbors of "anarchism" from the test data */
+	@VisibleForTesting
+	public static Word2VecTrainerBuilder skipGramTrainer() {
+		return Word2VecModel.trainer()
+			.setMinVocabFrequency(6)
+			.useNumThreads(1)
+			.setWindowSize(8)
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.useNegativeSamples(5)
+			.setLayerSize(25)
+			.setNumIterations(5);
+	}
+
+	/** @return {@link #skipGramTrainer()} with the vocab of all the test data, sharing its weights in the directory with the other processes */
+	@VisibleForTesting
+	public static Word2VecTrainerBuilder sharedTrainer(File directory, int process, int numProcesses) throws IOException {
+		Multiset<String> vocab = HashMultiset.create();
+		for (List<String> sentence : Word2VecTest.testData())
+			vocab.addAll(sentence);
+		return skipGramTrainer()
+			.useVocab(vocab)
+			.shareMappedWeights(directory, process, numProcesses);
+	}
+
+	/** Train on a shard of the test data with other processes and write the model */
+	public static void main(String[] args) throws IOException, InterruptedException, TException {
+		Preconditions.checkArgument(args.length >= 1 && (args[0].equals("coordinator") ? args.length == 6 : args[0].equals("shared") && args.length == 5),
+				"Usage: TrainingProcess coordinator host port shard numShards output, or TrainingProcess shared directory shard numShards output");
+		boolean coordinated = args[0].equals("coordinator");
+		int first = coordinated ? 3 : 2;
+		int shard = Integer.parseInt(args[first]);
+		int numShards = Integer.parseInt(args[first + 1]);
+		File output = new File(args[first + 2]);
+
+		Word2VecTrainerBuilder trainer = coordinated
+				? Word2VecTest.trainer().useCoordinator(args[1], Integer.parseInt(args[2]))
+				: sharedTrainer(new File(args[1]), shard, numShards);
+		Word2VecModel model = trainer.train(shard(shard, numShards));
+		FileUtils.writeStringToFile(output, ThriftUtils.serializeJson(model.toThrift()), StandardCharsets.UTF_8);
+	}
+}
@@ -1,11 +1,24 @@
 package org.allenai.word2vec;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.thrift.TException;
@@ -15,13 +28,21 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import org.allenai.word2vec.Searcher.Match;
 import org.allenai.word2vec.Searcher.UnknownWordException;
 import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+import org.allenai.word2vec.neuralnetwork.NegativeSamplerType;
 import org.allenai.word2vec.neuralnetwork.NeuralNetworkType;
+import org.allenai.word2vec.neuralnetwork.TrainingCoordinator;
+import org.allenai.word2vec.neuralnetwork.TrainingStats;
+import org.allenai.word2vec.neuralnetwork.WeightStorage;
 import org.allenai.word2vec.thrift.Word2VecModelThrift;
 import org.allenai.word2vec.util.Common;
 import org.allenai.word2vec.util.ThriftUtils;
@@ -60,6 +81,20 @@ public class Word2VecTest {
 		);
 	}
 
+	/** Test that training from a {@link Stream} matches training from an {@link Iterable} */
+	@Test
+	public void testCBOWFromStream() throws IOException, TException, InterruptedException {
+		final List<List<String>> sentences = ImmutableList.copyOf(testData());
+		assertModelMatches("cbowBasic.model",
+				trainer()
+						.train(new Supplier<Stream<List<String>>>() {
+							@Override public Stream<List<String>> get() {
+								return sentences.stream();
+							}
+						})
+		);
+	}
+
 	/** Test {@link NeuralNetworkType#CBOW} with 15 iterations */
 	@Test
 	public void testCBOWwith15Iterations() throws IOException, TException, InterruptedException {
@@ -72,6 +107,7 @@ public class Word2VecTest {
 					.useHierarchicalSoftmax()
 					.setLayerSize(25)
 					.useNegativeSamples(5)
+					.setNegativeSampler(NegativeSamplerType.UNIGRAM_TABLE)
 					.setDownSamplingRate(1e-3)
 					.setNumIterations(15)
 					.train(testData())
@@ -115,32 +151,44 @@ public class Word2VecTest {
 	/** Test that we can interrupt the huffman encoding process */
 	@Test
 	public void testInterruptHuffman() throws IOException, InterruptedException {
-		expected.expect(InterruptedException.class);
-		trainer()
-			.type(NeuralNetworkType.SKIP_GRAM)
-			.setNumIterations(15)
-			.setListener(new Word2VecTrainerBuilder.TrainingProgressListener() {
-					@Override public void update(Stage stage, double progress) {
-						if (stage == Stage.CREATE_HUFFMAN_ENCODING)
-							Thread.currentThread().interrupt();
-						else if (stage == Stage.TRAIN_NEURAL_NETWORK)
-							fail("Should not have reached this stage");
-					}
-				})
-			.train(testData());
+		final List<Stage> stages = new CopyOnWriteArrayList<>();
+		final HashMultiset<String> vocab = HashMultiset.create();
+		for (List<String> sentence : testData())
+			vocab.addAll(sentence);
+		// With a pre-built vocab, nothing before the Huffman encoding checks for interrupts
+		Thread.currentThread().interrupt();
+		try {
+			trainer()
+				.type(NeuralNetworkType.SKIP_GRAM)
+				.setNumIterations(15)
+				.useVocab(vocab)
+				.setListener(new Word2VecTrainerBuilder.TrainingProgressListener() {
+						@Override public void update(Stage stage, double progress) {
+							stages.add(stage);
+						}
+					})
+				.train(testData());
+			fail("Should have been interrupted");
+		} catch (InterruptedException e) {
+			assertEquals("Interrupted while encoding huffman tree", e.getMessage());
+		}
+		assertFalse("Should not have reached this stage", stages.contains(Stage.TRAIN_NEURAL_NETWORK));
 	}
 
 	/** Test that we can interrupt the neural network training process */
 	@Test
 	public void testInterruptNeuralNetworkTraining() throws InterruptedException, IOException {
 		expected.expect(InterruptedException.class);
+		// Progress is reported from another thread, so interrupt the thread doing the training
+		final Thread trainingThread = Thread.currentThread();
 		trainer()
 			.type(NeuralNetworkType.SKIP_GRAM)
 			.setNumIterations(15)
+			.setProgressInterval(1, TimeUnit.MILLISECONDS)
 			.setListener(new Word2VecTrainerBuilder.TrainingProgressListener() {
 					@Override public void update(Stage stage, double progress) {
 						if (stage == Stage.TRAIN_NEURAL_NETWORK)
-							Thread.currentThread().interrupt();
+							trainingThread.interrupt();
 					}
 				})
 			.train(testData());
@@ -164,6 +212,289 @@ public class Word2VecTest {
 			);
 	}
 
+	/** Test that training stats are reported, with a final report matching the whole run, and do not change the model */
+	@Test
+	public void testStats() throws IOException, TException, InterruptedException {
+		final List<TrainingStats> stats = new CopyOnWriteArrayList<>();
+		Word2VecModel model = trainer()
+			.setNumIterations(2)
+			.setStatsListener(new Word2VecTrainerBuilder.TrainingStatsListener() {
+					@Override public void update(TrainingStats s) {
+						stats.add(s);
+					}
+				}, 1, TimeUnit.MILLISECONDS)
+			.train(testData());
+
+		TrainingStats last = Iterables.getLast(stats);
+		assertEquals(2, last.iteration());
+		assertEquals(2, last.iterationSeconds().size());
+		assertEquals(1, last.numThreads());
+		assertEquals(2 * Iterables.size(testData()), last.sentences());
+		assertTrue(last.droppedWords() > 0 && last.droppedWords() < last.words());
+		assertEquals(model.toThrift(), trainer().setNumIterations(2).train(testData()).toThrift());
+	}
+
+	/** Test that estimating the loss leaves the model alone, and that training stops once the loss stops improving */
+	@Test
+	public void testEarlyStopping() throws IOException, TException, InterruptedException {
+		assertModelMatches("cbowBasic.model", trainer().estimateLoss(10).train(testData()));
+
+		final List<TrainingStats> stats = new CopyOnWriteArrayList<>();
+		trainer()
+			.setNumIterations(15)
+			.estimateLoss(10)
+			.stopEarly(0.015)
+			.setStatsListener(new Word2VecTrainerBuilder.TrainingStatsListener() {
+					@Override public void update(TrainingStats s) {
+						stats.add(s);
+					}
+				}, 1, TimeUnit.SECONDS)
+			.train(testData());
+
+		List<Double> losses = Iterables.getLast(stats).iterationLosses();
+		assertTrue("Should have stopped early: " + losses, losses.size() > 2 && losses.size() < 15);
+		assertTrue("Loss should improve: " + losses, losses.get(0) > Iterables.getLast(losses));
+	}
+
+	/** Test that the live searcher can be queried during training and sees the final model once training is done */
+	@Test
+	public void testLiveSearcher() throws InterruptedException, IOException, Searcher.UnknownWordException {
+		final List<Searcher> searchers = new ArrayList<>();
+		final List<List<Match>> duringTraining = new ArrayList<>();
+		Word2VecModel model = trainer()
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.setSearcherListener(new Word2VecTrainerBuilder.LiveSearcherListener() {
+					@Override public void trainingStarted(Searcher searcher) {
+						searchers.add(searcher);
+					}
+				})
+			.setListener(new Word2VecTrainerBuilder.TrainingProgressListener() {
+					@Override public void update(Stage stage, double progress) {
+						if (stage == Stage.TRAIN_NEURAL_NETWORK && progress > 0.5 && duringTraining.isEmpty()) {
+							try {
+								duringTraining.add(searchers.get(0).getMatches("anarchism", 5));
+							} catch (UnknownWordException e) {
+								throw new AssertionError(e);
+							}
+						}
+					}
+				})
+			.train(testData());
+
+		assertEquals(1, searchers.size());
+		assertEquals(5, Iterables.getOnlyElement(duringTraining).size());
+		assertEquals(
+				ImmutableList.of("anarchism", "feminism", "trouble", "left", "capitalism"),
+				Lists.transform(searchers.get(0).getMatches("anarchism", 5), Searcher.Match.TO_WORD)
+			);
+		assertEquals(
+				model.forSearch().cosineDistance("anarchism", "feminism"),
+				searchers.get(0).cosineDistance("anarchism", "feminism"),
+				1e-9
+			);
+	}
+
+	/** Test that a model trained with subwords composes vectors for words outside the vocab */
+	@Test
+	public void testSubwords() throws InterruptedException, IOException, Searcher.UnknownWordException {
+		Word2VecModel model = trainer()
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.useSubwords(3, 6, 100_000)
+			.train(testData());
+
+		assertTrue(model instanceof SubwordWord2VecModel);
+		Searcher searcher = model.forSearch();
+		assertFalse(searcher.contains("anarchisms"));
+		assertEquals("anarchism", searcher.getMatches("anarchisms", 1).get(0).match());
+		assertEquals(
+				Lists.transform(searcher.getMatches("anarchism", 5), Searcher.Match.TO_WORD),
+				Lists.transform(NormalizedWord2VecModel.fromWord2VecModel(model).forSearch().getMatches("anarchism", 5), Searcher.Match.TO_WORD)
+			);
+	}
+
+	/** Test that single precision weights produce the same search results as double precision */
+	@Test
+	public void testFloatWeights() throws InterruptedException, IOException, Searcher.UnknownWordException {
+		Word2VecModel model = trainer()
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.setWeightStorage(WeightStorage.FLOAT_ARRAY)
+			.train(testData());
+
+		List<Searcher.Match> matches = model.forSearch().getMatches("anarchism", 5);
+
+		assertEquals(
+				ImmutableList.of("anarchism", "feminism", "trouble", "left", "capitalism"),
+				Lists.transform(matches, Searcher.Match.TO_WORD)
+			);
+	}
+
+	/**
+	 * Test that {@link NeuralNetworkType#SKIP_GRAM} learns from negative sampling alone, which it did
+	 * not while it sampled against the hidden layer of CBOW instead of the context word
+	 */
+	@Test
+	public void testSkipGramNegativeSampling() throws InterruptedException, IOException, Searcher.UnknownWordException {
+		Word2VecModel model = Word2VecModel.trainer()
+			.setMinVocabFrequency(6)
+			.useNumThreads(1)
+			.setWindowSize(8)
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.useNegativeSamples(5)
+			.setLayerSize(25)
+			.setNumIterations(5)
+			.train(testData());
+		Set<String> neighbors = new HashSet<>(Lists.transform(model.forSearch().getMatches("anarchism", 10), Searcher.Match.TO_WORD));
+		neighbors.retainAll(ImmutableList.of("anarchist", "anarchists", "anarchy", "anarcho", "feminism"));
+		assertTrue("Too few related neighbors: " + neighbors, neighbors.size() >= 3);
+	}
+
+	/** Test that {@link NeuralNetworkType#SKIP_GRAM_MINIBATCH} learns much the same neighbors as {@link NeuralNetworkType#SKIP_GRAM} */
+	@Test
+	public void testSkipGramMinibatch() throws InterruptedException, IOException, Searcher.UnknownWordException {
+		Set<String> neighbors = new HashSet<>();
+		for (NeuralNetworkType type : ImmutableList.of(NeuralNetworkType.SKIP_GRAM, NeuralNetworkType.SKIP_GRAM_MINIBATCH)) {
+			Word2VecModel model = Word2VecModel.trainer()
+				.setMinVocabFrequency(6)
+				.useNumThreads(1)
+				.setWindowSize(8)
+				.type(type)
+				.useNegativeSamples(5)
+				.setLayerSize(25)
+				.setNumIterations(5)
+				.train(testData());
+			neighbors.addAll(Lists.transform(model.forSearch().getMatches("anarchism", 6), Searcher.Match.TO_WORD));
+		}
+		assertTrue("Too few neighbors in common: " + neighbors, neighbors.size() <= 9);
+	}
+
+	/** Test that memory-mapped weights produce the same model as heap weights */
+	@Test
+	public void testMappedWeights() throws IOException, TException, InterruptedException {
+		File dir = Files.createTempDirectory(Word2VecTest.class.getSimpleName()).toFile();
+		try {
+			assertModelMatches("cbowBasic.model", trainer().useMappedWeights(dir).train(testData()));
+			assertTrue(new File(dir, "syn0").exists());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/** Test that resuming from the final checkpoint of a training run reproduces its model */
+	@Test
+	public void testResumeFromCheckpoint() throws IOException, TException, InterruptedException {
+		File dir = Files.createTempDirectory(Word2VecTest.class.getSimpleName()).toFile();
+		try {
+			File checkpoint = new File(dir, "checkpoint");
+			assertModelMatches("cbowBasic.model", trainer().useCheckpoints(checkpoint, 1, TimeUnit.HOURS).train(testData()));
+			assertModelMatches("cbowBasic.model", trainer().resumeFrom(checkpoint).train(testData()));
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/** Test that warm starting without any learning leaves the vectors of the previous model untouched */
+	@Test
+	public void testWarmStart() throws IOException, TException, InterruptedException {
+		Word2VecModel model = trainer().train(testData());
+		assertModelMatches("cbowBasic.model", trainer().warmStartFrom(model).setInitialLearningRate(0).train(testData()));
+	}
+
+	/** Test that warm starting from a checkpoint keeps all of its vocab, however small the counts of the new corpus are capped */
+	@Test
+	public void testWarmStartKeepsCheckpointVocab() throws IOException, TException, InterruptedException {
+		File dir = Files.createTempDirectory(Word2VecTest.class.getSimpleName()).toFile();
+		try {
+			File checkpoint = new File(dir, "checkpoint");
+			Word2VecModel model = trainer().useCheckpoints(checkpoint, 1, TimeUnit.HOURS).train(testData());
+			List<List<String>> sentences = ImmutableList.<List<String>>of(ImmutableList.of("a", "b", "c"));
+			Word2VecModel warmStarted = trainer()
+				.setMaxVocabSize(10)
+				.warmStartFrom(checkpoint)
+				.train(sentences);
+			assertEquals(ImmutableSet.copyOf(model.getVocab()), ImmutableSet.copyOf(warmStarted.getVocab()));
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/** 
+	 * Test that processes training on shards of the corpus through a coordinator learn the vocab
+	 * of the whole corpus and end up with the same model
+	 */
+	@Test
+	public void testCoordinator() throws Exception {
+		List<List<String>> sentences = ImmutableList.copyOf(testData());
+		final TrainingCoordinator coordinator = new TrainingCoordinator(0, 2, 3);
+		ExecutorService ex = Executors.newCachedThreadPool();
+		try {
+			Future<?> coordination = ex.submit(new Callable<Void>() {
+				@Override public Void call() throws TException {
+					coordinator.run();
+					return null;
+				}
+			});
+			List<Future<Word2VecModel>> models = new ArrayList<>();
+			for (final List<List<String>> shard : Lists.partition(sentences, sentences.size() / 2)) {
+				models.add(ex.submit(new Callable<Word2VecModel>() {
+					@Override public Word2VecModel call() throws InterruptedException {
+						return trainer().useCoordinator("localhost", coordinator.getPort()).train(shard);
+					}
+				}));
+			}
+			Word2VecModel first = models.get(0).get();
+			Word2VecModel second = models.get(1).get();
+			coordination.get();
+			
+			assertEquals(ImmutableList.copyOf(trainer().train(sentences).getVocab()), ImmutableList.copyOf(first.getVocab()));
+			assertEquals(first.toThrift(), second.toThrift());
+		} finally {
+			ex.shutdownNow();
+			coordinator.close();
+		}
+	}
+
+	/** Test that training processes in JVMs of their own, syncing through a coordinator, end up with the same model as threads do */
+	@Test
+	public void testCoordinatorProcesses() throws Exception {
+		List<List<String>> sentences = ImmutableList.copyOf(testData());
+		File dir = Files.createTempDirectory(Word2VecTest.class.getSimpleName()).toFile();
+		final TrainingCoordinator coordinator = new TrainingCoordinator(0, 2, 3);
+		ExecutorService ex = Executors.newSingleThreadExecutor();
+		List<Process> processes = new ArrayList<>();
+		try {
+			Future<?> coordination = ex.submit(new Callable<Void>() {
+				@Override public Void call() throws TException {
+					coordinator.run();
+					return null;
+				}
+			});
+			List<File> outputs = new ArrayList<>();
+			for (int shard = 0; shard < 2; shard++) {
+				File output = new File(dir, "model" + shard);
+				outputs.add(output);
+				processes.add(TrainingProcess.start(coordinator.getPort(), shard, 2, output));
+			}
+			Word2VecModel first = TrainingProcess.await(processes.get(0), outputs.get(0));
+			Word2VecModel second = TrainingProcess.await(processes.get(1), outputs.get(1));
+			coordination.get();
+
+			assertEquals(ImmutableList.copyOf(trainer().train(sentences).getVocab()), ImmutableList.copyOf(first.getVocab()));
+			assertEquals(first.toThrift(), second.toThrift());
+		} finally {
+			for (Process process : processes)
+				process.destroyForcibly();
+			ex.shutdownNow();
+			coordinator.close();
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/** Test that padding the rows of the weights does not change the results */
+	@Test
+	public void testPaddedRows() throws IOException, TException, InterruptedException {
+		assertModelMatches("cbowBasic.model", trainer().usePaddedRows().train(testData()));
+	}
+
   /**
    * Test that the model can retrieve words by a vector.
    */
@@ -0,0 +1,60 @@
+package org.allenai.word2vec.huffman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.allenai.word2vec.Word2VecTrainerBuilder.TrainingProgressListener;
+import org.junit.Test;
+
+/** Tests for {@link HuffmanCoding} */
+public class HuffmanCodingTest {
+	private static final TrainingProgressListener NO_OP = new TrainingProgressListener() {
+		@Override public void update(Stage stage, double progress) {
+		}
+	};
+
+	/** Test that the codes of a vocab large enough to be filled in parallel form one Huffman tree */
+	@Test
+	public void testCodesFormTree() throws InterruptedException {
+		int numTokens = 50_000;
+		List<String> tokens = new ArrayList<>();
+		long[] counts = new long[numTokens];
+		for (int i = 0; i < numTokens; i++) {
+			tokens.add("w" + i);
+			counts[i] = 1 + 1_000_000 / (i + 1);
+		}
+
+		HuffmanCodes codes = new HuffmanCoding(tokens, counts, NO_OP).encode();
+		assertEquals(numTokens, codes.size());
+		assertEquals(tokens, codes.tokens());
+		assertEquals(123, codes.id("w123"));
+		assertEquals(-1, codes.id("missing"));
+
+		// Each branch of an inner node leads to the same node from every code, leaves are reached once
+		Map<Long, Integer> children = new HashMap<>();
+		int[] offsets = codes.offsets();
+		double kraft = 0;
+		for (int id = 0; id < numTokens; id++) {
+			int codeLen = offsets[id + 1] - offsets[id];
+			assertTrue(codeLen > 0);
+			if (id > 0)
+				assertTrue(codeLen >= offsets[id] - offsets[id - 1] || counts[id] == counts[id - 1]);
+			kraft += Math.pow(2, -codeLen);
+			assertEquals(numTokens - 2, codes.points()[offsets[id]]);
+			for (int i = 0; i < codeLen; i++) {
+				int offset = offsets[id] + i;
+				long branch = 2L * codes.points()[offset] + codes.codes()[offset];
+				int child = i + 1 < codeLen ? codes.points()[offset + 1] : -1 - id;
+				Integer previous = children.put(branch, child);
+				assertTrue(previous == null || (previous == child && child >= 0));
+			}
+		}
+		assertEquals(1.0, kraft, 1e-9);
+		assertEquals(2 * (numTokens - 1), children.size());
+	}
+}
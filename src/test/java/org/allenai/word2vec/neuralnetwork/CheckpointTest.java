@@ -0,0 +1,161 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.allenai.word2vec.Searcher;
+import org.allenai.word2vec.Searcher.UnknownWordException;
+import org.allenai.word2vec.Word2VecModel;
+import org.allenai.word2vec.Word2VecTest;
+import org.allenai.word2vec.Word2VecTrainerBuilder;
+
+/**
+ * Tests for {@link Checkpoint}
+ */
+public class CheckpointTest {
+	private static final int ITERATIONS = 5;
+	/** Sentences after which training is cut short, the end of the first batch of the test data */
+	private static final int CRASH_SENTENCE = 10;
+	/** Words related to anarchism, most of which a good model finds among its neighbors */
+	private static final ImmutableList<String> RELATED = ImmutableList.of("anarchist", "anarchists", "anarchy", "anarcho", "feminism");
+
+	/**
+	 * Test that training cut short in the middle of its last iteration resumes from the last
+	 * checkpoint: it trains only the rest of the iteration, carries on with the learning rate and
+	 * word count of the checkpoint, and ends up as good a model as an uninterrupted run
+	 */
+	@Test
+	public void testResumeMidIteration() throws IOException, InterruptedException, UnknownWordException {
+		final List<List<String>> sentences = ImmutableList.copyOf(Word2VecTest.testData());
+		final List<TrainingStats> fullStats = new CopyOnWriteArrayList<>();
+		Word2VecModel full = trainer()
+			.setStatsListener(collect(fullStats), 1, TimeUnit.HOURS)
+			.train(sentences);
+
+		File dir = Files.createTempDirectory(CheckpointTest.class.getSimpleName()).toFile();
+		try {
+			final File file = new File(dir, "checkpoint");
+			try {
+				trainer()
+					.useCheckpoints(file, 1, TimeUnit.MILLISECONDS)
+					.train(crashing(sentences, file));
+				fail("Training should have been cut short");
+			} catch (Crash e) {
+				// Expected
+			}
+
+			Checkpoint checkpoint = Checkpoint.read(file);
+			TrainingStats fullLast = Iterables.getLast(fullStats);
+			assertEquals(1, checkpoint.iteration);
+			assertEquals(CRASH_SENTENCE, checkpoint.completedSentences);
+			assertTrue(checkpoint.actualWordCount > fullLast.words() / 2 && checkpoint.actualWordCount < fullLast.words());
+			assertTrue(checkpoint.alpha < NeuralNetworkType.SKIP_GRAM.getDefaultInitialLearningRate() && checkpoint.alpha > fullLast.alpha());
+
+			final List<TrainingStats> resumedStats = new CopyOnWriteArrayList<>();
+			Word2VecModel resumed = trainer()
+				.resumeFrom(file)
+				.setStatsListener(collect(resumedStats), 1, TimeUnit.HOURS)
+				.train(sentences);
+
+			TrainingStats resumedLast = Iterables.getLast(resumedStats);
+			assertEquals(1, resumedLast.iterationSeconds().size());
+			assertEquals(sentences.size() - CRASH_SENTENCE, resumedLast.sentences());
+			assertEquals(fullLast.words(), checkpoint.actualWordCount + resumedLast.words());
+			// Alpha is only updated every so many words, which the rest of the iteration may not reach
+			assertTrue(resumedLast.alpha() <= checkpoint.alpha && resumedLast.alpha() >= fullLast.alpha());
+			assertTrue("Too few related neighbors: " + relatedNeighbors(full), relatedNeighbors(full).size() >= 3);
+			assertTrue("Too few related neighbors: " + relatedNeighbors(resumed), relatedNeighbors(resumed).size() >= 3);
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/** @return Trainer of a skip-gram model with negative sampling, which learns good neighbors of "anarchism" from the test data */
+	private static Word2VecTrainerBuilder trainer() {
+		return Word2VecModel.trainer()
+			.setMinVocabFrequency(6)
+			.useNumThreads(1)
+			.setWindowSize(8)
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.useNegativeSamples(5)
+			.setLayerSize(25)
+			.setNumIterations(ITERATIONS);
+	}
+
+	/** @return Words of {@link #RELATED} among the 10 nearest neighbors of "anarchism" */
+	private static Set<String> relatedNeighbors(Word2VecModel model) throws UnknownWordException {
+		Set<String> neighbors = new HashSet<>(Lists.transform(model.forSearch().getMatches("anarchism", 10), Searcher.Match.TO_WORD));
+		neighbors.retainAll(RELATED);
+		return neighbors;
+	}
+
+	/** @return Listener adding the stats to the list */
+	private static Word2VecTrainerBuilder.TrainingStatsListener collect(final List<TrainingStats> stats) {
+		return new Word2VecTrainerBuilder.TrainingStatsListener() {
+			@Override public void update(TrainingStats s) {
+				stats.add(s);
+			}
+		};
+	}
+
+	/**
+	 * @return The sentences, except that the pass of the last iteration stops at {@link #CRASH_SENTENCE}
+	 * with a {@link Crash}, once a checkpoint has recorded all the sentences before it. The first pass
+	 * over the sentences counts the vocab.
+	 */
+	private static Iterable<List<String>> crashing(final List<List<String>> sentences, final File file) {
+		return new Iterable<List<String>>() {
+			private int passes;
+
+			@Override public Iterator<List<String>> iterator() {
+				final boolean lastPass = ++passes == 1 + ITERATIONS;
+				return new AbstractIterator<List<String>>() {
+					private int position;
+
+					@Override protected List<String> computeNext() {
+						if (position == sentences.size())
+							return endOfData();
+						if (lastPass && position == CRASH_SENTENCE) {
+							awaitCheckpoint(file);
+							throw new Crash();
+						}
+						return sentences.get(position++);
+					}
+				};
+			}
+		};
+	}
+
+	/** Blocks until the checkpoint has recorded the sentences up to {@link #CRASH_SENTENCE} of the last iteration */
+	private static void awaitCheckpoint(File file) {
+		try {
+			while (!file.exists() || Checkpoint.read(file).iteration != 1 || Checkpoint.read(file).completedSentences < CRASH_SENTENCE)
+				Thread.sleep(1);
+		} catch (IOException | InterruptedException e) {
+			throw new IllegalStateException(String.format("Failed to wait for checkpoint %s: %s", file.getAbsolutePath(), e), e);
+		}
+	}
+
+	/** Thrown by the corpus to cut training short */
+	private static final class Crash extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+}
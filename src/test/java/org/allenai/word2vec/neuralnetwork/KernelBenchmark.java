@@ -0,0 +1,57 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import java.util.Random;
+
+/**
+ * Measures the time per call of the {@link Kernel} routines for each {@link KernelType},
+ * on rows that fit in the cache so that the arithmetic dominates
+ * <p>
+ * Usage: KernelBenchmark [layerSize]
+ * <p>
+ * Run with --add-modules jdk.incubator.vector to include {@link KernelType#VECTOR}.
+ */
+public class KernelBenchmark {
+	private static final int ROWS = 512;
+	private static final int CALLS = 2_000_000;
+
+	/** Run the benchmark */
+	public static void main(String[] args) {
+		int layerSize = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		Random random = new Random(1);
+		double[] rows = new double[ROWS * layerSize];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = random.nextDouble() - 0.5;
+		double[] vec = new double[layerSize];
+		for (int i = 0; i < layerSize; i++)
+			vec[i] = random.nextDouble() - 0.5;
+
+		for (KernelType type : KernelType.values()) {
+			Kernel kernel = type.create();
+			// Warm up the JIT
+			dot(kernel, vec, rows, layerSize);
+			axpy(kernel, vec, rows, layerSize);
+			System.out.println(String.format("%s kernel, layer size %s: dot %.1f ns, axpy %.1f ns",
+					type, layerSize, dot(kernel, vec, rows, layerSize), axpy(kernel, vec, rows, layerSize)));
+		}
+	}
+
+	/** @return Nanoseconds per call of {@link Kernel#dot(double[], double[], int, int)} */
+	private static double dot(Kernel kernel, double[] vec, double[] rows, int layerSize) {
+		long start = System.nanoTime();
+		double sum = 0;
+		for (int i = 0; i < CALLS; i++)
+			sum += kernel.dot(vec, rows, (i % ROWS) * layerSize, layerSize);
+		double nanos = (System.nanoTime() - start) / (double)CALLS;
+		if (Double.isNaN(sum))
+			throw new AssertionError();
+		return nanos;
+	}
+
+	/** @return Nanoseconds per call of {@link Kernel#axpy(double, double[], int, double[], int, int)} */
+	private static double axpy(Kernel kernel, double[] vec, double[] rows, int layerSize) {
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++)
+			kernel.axpy((i & 1) == 0 ? 1e-3 : -1e-3, vec, 0, rows, (i % ROWS) * layerSize, layerSize);
+		return (System.nanoTime() - start) / (double)CALLS;
+	}
+}
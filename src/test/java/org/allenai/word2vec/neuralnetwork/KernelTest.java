@@ -0,0 +1,48 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Kernel}
+ * <p>
+ * {@link KernelType#VECTOR} is only exercised when the Vector API is available, otherwise it
+ * falls back to {@link KernelType#SCALAR}
+ */
+public class KernelTest {
+	/** Odd size so that the loops have a remainder */
+	private static final int SIZE = 101;
+
+	/** Test that {@link KernelType#VECTOR} matches {@link KernelType#SCALAR} */
+	@Test
+	public void testVectorMatchesScalar() {
+		Kernel scalar = KernelType.SCALAR.create();
+		Kernel vector = KernelType.VECTOR.create();
+		Random random = new Random(1);
+		double[] x = random(random, SIZE);
+		double[] y = random(random, SIZE + 7);
+
+		assertEquals(scalar.dot(x, y, 7, SIZE), vector.dot(x, y, 7, SIZE), 1e-12);
+
+		double[] expected = y.clone();
+		double[] actual = y.clone();
+		scalar.axpy(0.3, x, 0, expected, 7, SIZE);
+		vector.axpy(0.3, x, 0, actual, 7, SIZE);
+		assertArrayEquals(expected, actual, 0);
+
+		scalar.divide(expected, 3, SIZE);
+		vector.divide(actual, 3, SIZE);
+		assertArrayEquals(expected, actual, 0);
+	}
+
+	private static double[] random(Random random, int size) {
+		double[] result = new double[size];
+		for (int i = 0; i < size; i++)
+			result[i] = random.nextDouble() - 0.5;
+		return result;
+	}
+}
@@ -0,0 +1,31 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link NegativeSampler}
+ */
+public class NegativeSamplerTest {
+	/** Test that {@link NegativeSamplerType#ALIAS} samples words with their smoothed unigram probability */
+	@Test
+	public void testAliasDistribution() {
+		long[] counts = { 1_000, 300, 100, 10, 1 };
+		NegativeSampler sampler = NegativeSamplerType.ALIAS.create(counts);
+
+		int numSamples = 1_000_000;
+		int[] sampled = new int[counts.length];
+		long random = 1;
+		for (int i = 0; i < numSamples; i++) {
+			random = NeuralNetworkTrainer.incrementRandom(random);
+			sampled[sampler.sample(random)]++;
+		}
+
+		double total = 0;
+		for (long count : counts)
+			total += Math.pow(count, 0.75);
+		for (int i = 0; i < counts.length; i++)
+			assertEquals(Math.pow(counts[i], 0.75) / total, sampled[i] / (double)numSamples, 0.002);
+	}
+}
@@ -0,0 +1,50 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ReplicatedWeightMatrix}
+ */
+public class ReplicatedWeightMatrixTest {
+	private static final double[] ONES = { 1, 1, 1 };
+
+	/** Test that updates to the replicas of two workers are only shared once synced, and then combined */
+	@Test
+	public void testSyncCombinesUpdates() {
+		WeightMatrix shared = WeightMatrix.doubles(4, 3, false, Kernel.SCALAR);
+		ReplicatedWeightMatrix first = new ReplicatedWeightMatrix(shared, 1, 2, Kernel.SCALAR);
+		ReplicatedWeightMatrix second = new ReplicatedWeightMatrix(shared, 1, 2, Kernel.SCALAR);
+
+		first.addToRow(1, 2, ONES);
+		second.addToRow(1, 3, ONES);
+		assertRow(new double[] { 0, 0, 0 }, shared, 1);
+		assertRow(new double[] { 2, 2, 2 }, first, 1);
+
+		first.sync();
+		second.sync();
+		assertRow(new double[] { 5, 5, 5 }, shared, 1);
+		assertRow(new double[] { 5, 5, 5 }, second, 1);
+		// first has yet to pick up the update of second
+		assertRow(new double[] { 2, 2, 2 }, first, 1);
+		first.sync();
+		assertRow(new double[] { 5, 5, 5 }, first, 1);
+	}
+
+	/** Test that rows that are not replicated are updated in the shared matrix directly */
+	@Test
+	public void testColdRowsAreShared() {
+		WeightMatrix shared = WeightMatrix.doubles(4, 3, false, Kernel.SCALAR);
+		ReplicatedWeightMatrix replica = new ReplicatedWeightMatrix(shared, 1, 2, Kernel.SCALAR);
+
+		replica.addToRow(3, ONES);
+		assertRow(ONES, shared, 3);
+	}
+
+	private static void assertRow(double[] expected, WeightMatrix matrix, int row) {
+		double[] actual = new double[matrix.columns];
+		matrix.copyRow(row, actual);
+		assertArrayEquals(expected, actual, 0);
+	}
+}
@@ -0,0 +1,103 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import org.allenai.word2vec.Searcher;
+import org.allenai.word2vec.Searcher.UnknownWordException;
+import org.allenai.word2vec.TrainingProcess;
+import org.allenai.word2vec.Word2VecModel;
+import org.allenai.word2vec.Word2VecTest;
+import org.allenai.word2vec.Word2VecTrainerBuilder;
+
+/**
+ * Tests for training with {@link WeightStorage#MAPPED} weights shared by several processes
+ */
+public class SharedWeightsTest {
+	private static final int ITERATIONS = 5;
+	/** Words related to anarchism, which a good model puts close to it */
+	private static final ImmutableList<String> RELATED = ImmutableList.of("anarchist", "anarchists", "anarchy", "anarcho", "feminism");
+	/** Least fraction of the similarity of the baseline that the shared model must reach */
+	private static final double MIN_RELATIVE_SIMILARITY = 0.85;
+
+	/**
+	 * Test that two processes sharing mapped weights, this one and another JVM, each train only
+	 * their own half of the corpus, together count the words of all of it, and end up with the same
+	 * model, as good as one trained by a single process with as many threads
+	 */
+	@Test
+	public void testSharedMappedWeights() throws Exception {
+		File dir = Files.createTempDirectory(SharedWeightsTest.class.getSimpleName()).toFile();
+		File weights = new File(dir, "weights");
+		File output = new File(dir, "model");
+		Process other = null;
+		try {
+			assertTrue(weights.mkdir());
+			other = TrainingProcess.startShared(weights, 1, 2, output);
+			final List<TrainingStats> stats = new CopyOnWriteArrayList<>();
+			Word2VecModel model = TrainingProcess.sharedTrainer(weights, 0, 2)
+				.setStatsListener(new Word2VecTrainerBuilder.TrainingStatsListener() {
+						@Override public void update(TrainingStats s) {
+							stats.add(s);
+						}
+					}, 1, TimeUnit.HOURS)
+				.train(TrainingProcess.shard(0, 2));
+			Word2VecModel otherModel = TrainingProcess.await(other, output);
+			assertEquals(model.toThrift(), otherModel.toThrift());
+
+			Set<String> vocab = ImmutableSet.copyOf(model.getVocab());
+			long ownWords = ITERATIONS * words(TrainingProcess.shard(0, 2), vocab);
+			long otherWords = ITERATIONS * words(TrainingProcess.shard(1, 2), vocab);
+			TrainingStats last = Iterables.getLast(stats);
+			assertEquals(ITERATIONS * TrainingProcess.shard(0, 2).size(), last.sentences());
+			assertEquals(ownWords, last.words());
+			// Whatever the other process added to the shared count is what it trained
+			assertEquals(ownWords + otherWords, SharedProgress.words(weights));
+
+			// Two processes training side by side are as good as one process with two threads, which is
+			// the same parallelism, while a single thread fits this small corpus even better
+			Word2VecModel baseline = TrainingProcess.skipGramTrainer().useNumThreads(2).train(Word2VecTest.testData());
+			assertTrue(String.format("Similarity %s below baseline %s", similarity(model), similarity(baseline)),
+					similarity(model) >= MIN_RELATIVE_SIMILARITY * similarity(baseline));
+		} finally {
+			if (other != null)
+				other.destroyForcibly();
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/** @return Words the trainer counts for the sentences: those in the vocab, and one per sentence for its end */
+	private static long words(List<List<String>> sentences, Set<String> vocab) {
+		long words = 0;
+		for (List<String> sentence : sentences) {
+			words++;
+			for (String token : sentence) {
+				if (vocab.contains(token))
+					words++;
+			}
+		}
+		return words;
+	}
+
+	/** @return Mean cosine similarity of "anarchism" to the words of {@link #RELATED} */
+	private static double similarity(Word2VecModel model) throws UnknownWordException {
+		Searcher searcher = model.forSearch();
+		double total = 0;
+		for (String word : RELATED)
+			total += searcher.cosineDistance("anarchism", word);
+		return total / RELATED.size();
+	}
+}
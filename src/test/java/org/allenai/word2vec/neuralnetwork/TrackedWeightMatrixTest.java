@@ -0,0 +1,33 @@
+package org.allenai.word2vec.neuralnetwork;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TrackedWeightMatrix}
+ */
+public class TrackedWeightMatrixTest {
+	private static final double[] ONES = { 1, 1, 1 };
+
+	/** Test that only the rows written are tracked, with their values from before the first write, until reset */
+	@Test
+	public void testTracksWrittenRows() {
+		WeightMatrix matrix = WeightMatrix.doubles(4, 3, false, Kernel.SCALAR);
+		matrix.setRow(2, ONES);
+		TrackedWeightMatrix tracked = new TrackedWeightMatrix(matrix);
+
+		tracked.addToRow(2, 2, ONES);
+		tracked.addToRow(2, ONES);
+		tracked.set(0, 1, 5);
+		assertArrayEquals(new int[] { 2, 0 }, tracked.dirtyRows());
+		assertArrayEquals(ONES, tracked.base(2), 0);
+		assertArrayEquals(new double[] { 0, 0, 0 }, tracked.base(0), 0);
+
+		tracked.reset();
+		tracked.setUntracked(3, ONES);
+		assertArrayEquals(new int[0], tracked.dirtyRows());
+		assertArrayEquals(new double[] { 4, 4, 4 }, tracked.base(2), 0);
+		assertArrayEquals(ONES, tracked.base(3), 0);
+	}
+}